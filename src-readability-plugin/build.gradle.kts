@@ -16,6 +16,7 @@ dependencies {
     // Add JGit dependency
     implementation("org.eclipse.jgit:org.eclipse.jgit:5.13.0.202109080827-r")
     implementation("org.freemarker:freemarker:2.3.31")
+    testImplementation("junit:junit:4.13.2")
     // Other dependencies...
 }
 
@@ -78,4 +79,16 @@ tasks {
         dependsOn(copyReadabilityModel)
         dependsOn(addTempFolder)
     }
+
+    // Rate a source tree without an IDE window (see HeadlessScorer), for example:
+    // ./gradlew scoreReadability --args="'/path/to/my src' --format csv --output scores.csv --threshold 0.5"
+    // Gradle splits --args like a shell, so paths with spaces have to be quoted.
+    register<org.jetbrains.intellij.tasks.RunIdeTask>("scoreReadability") {
+        dependsOn(copyReadabilityModel)
+        dependsOn(addTempFolder)
+        jvmArgs("-Djava.awt.headless=true")
+        doFirst {
+            args = listOf("readability-score") + (args ?: emptyList())
+        }
+    }
 }
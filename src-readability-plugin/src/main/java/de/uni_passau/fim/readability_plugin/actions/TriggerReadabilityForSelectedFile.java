@@ -3,40 +3,39 @@ package de.uni_passau.fim.readability_plugin.actions;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.vfs.VirtualFile;
+import de.uni_passau.fim.readability_plugin.services.ProjectAnalysisService;
 import de.uni_passau.fim.readability_plugin.services.SettingsService;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
- * !!! FEATURE IS NOT YET IMPLEMENTED !!!
- *
- * This feature was planned during the proposal phase of the study but never implemented.
- * The idea was to rate the readability of a complete file by clicking on a corresponding button if the menu
- * appearing when a file was right-clicked.
+ * Implementation of AnAction class serving as starting point for the "Analyze readability" feature of the project
+ * view. This class is registered in the plugin.xml in order to display the option in the menu appearing when
+ * files, directories or modules are right-clicked.
  *
- * In future versions this class can serve as a starting point for the feature.
+ * All java methods of the selected files (directories are searched recursively) are rated by the
+ * ProjectAnalysisService, which displays a readability report in the tool window afterwards.
  */
 public class TriggerReadabilityForSelectedFile extends AnAction {
 
     /**
-     * Overriding the update method to detect if a selected file is a java file.
+     * Overriding the update method to detect if java files, directories or modules are selected.
      * Only if this is the case the feature can be used.
      * Therefore, only if this is the case and the plugin ui is enabled the feature will be displayed in the menu
-     * appearing if the file was right-clicked.
+     * appearing if the selection was right-clicked.
      * @param event
      */
     @Override
     public void update(@NotNull AnActionEvent event) {
 
-        VirtualFile selectedFile = CommonDataKeys.VIRTUAL_FILE.getData(event.getDataContext());
-
-        if(selectedFile == null) {
-            event.getPresentation().setEnabledAndVisible(false);
-            return;
-        }
-        boolean isJavaFile = selectedFile.getFileType().getDefaultExtension().equals("java");
-
         Project eventProject = event.getProject();
         boolean showUi;
 
@@ -48,13 +47,47 @@ public class TriggerReadabilityForSelectedFile extends AnAction {
             showUi = false;
         }
 
-        boolean isVisible = isJavaFile && showUi;
+        boolean isVisible = showUi && !findSelectedRoots(event).isEmpty();
 
         event.getPresentation().setEnabledAndVisible(isVisible);
     }
 
+    /**
+     * Overriding the actionPerformed method in order to analyze all java methods of the selection
+     * in the background.
+     * @param event
+     */
     @Override
-    public void actionPerformed(@NotNull AnActionEvent e) {
-        System.out.println("Hello World");
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        Project project = event.getProject();
+        List<VirtualFile> roots = findSelectedRoots(event);
+        if(project == null || roots.isEmpty()) {
+            return;
+        }
+        project.getService(ProjectAnalysisService.class).analyse(roots);
+    }
+
+    /**
+     * Get the selected java files and directories, or the content roots of the selected module
+     * @param event the action event
+     * @return the files and directories to analyse
+     */
+    private List<VirtualFile> findSelectedRoots(AnActionEvent event) {
+        List<VirtualFile> roots = new ArrayList<>();
+        VirtualFile[] selectedFiles = CommonDataKeys.VIRTUAL_FILE_ARRAY.getData(event.getDataContext());
+        if(selectedFiles != null) {
+            for (VirtualFile selectedFile : selectedFiles) {
+                if(selectedFile.isDirectory() || "java".equalsIgnoreCase(selectedFile.getExtension())) {
+                    roots.add(selectedFile);
+                }
+            }
+            return roots;
+        }
+
+        Module module = LangDataKeys.MODULE_CONTEXT.getData(event.getDataContext());
+        if(module != null) {
+            roots.addAll(Arrays.asList(ModuleRootManager.getInstance(module).getContentRoots()));
+        }
+        return roots;
     }
 }
@@ -1,31 +1,23 @@
 package de.uni_passau.fim.readability_plugin.actions;
 
 import com.intellij.openapi.actionSystem.*;
-import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.vfs.VirtualFile;
-import de.uni_passau.fim.readability_plugin.readability.ReadabilityApi;
-import de.uni_passau.fim.readability_plugin.readability.ReadabilityProcessException;
-import de.uni_passau.fim.readability_plugin.readability.ReadabilityResult;
-import de.uni_passau.fim.readability_plugin.readability.ScalabrinoReadabilityApi;
+import com.intellij.openapi.roots.ProjectRootManager;
+import de.uni_passau.fim.readability_plugin.services.ProjectAnalysisService;
 import de.uni_passau.fim.readability_plugin.services.SettingsService;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Arrays;
+
 /**
- * !!! FEATURE IS NOT YET IMPLEMENTED !!!
- *
- * This feature was planned during the proposal phase of the study but never implemented.
- * The idea was to rate the readability of a complete project using an option in the "tools" menu.
+ * Implementation of AnAction class serving as starting point for the "Analyze readability of project" feature.
+ * This class is registered in the plugin.xml in order to display the option in the "tools" menu.
  *
- * In future versions this class can serve as a starting point for the feature.
+ * All java methods in the content roots of the project are rated by the ProjectAnalysisService,
+ * which displays a readability report in the tool window afterwards.
  */
 public class TriggerReadabilityOverToolsAction extends AnAction {
 
-    private ReadabilityApi api;
-    TriggerReadabilityOverToolsAction() {
-        super();
-        api = ScalabrinoReadabilityApi.getInstance();
-    }
     @Override
     public void update(@NotNull AnActionEvent event) {
 
@@ -46,26 +38,12 @@ public class TriggerReadabilityOverToolsAction extends AnAction {
 
     @Override
     public void actionPerformed(@NotNull AnActionEvent event) {
-
-
-        FileEditorManager manager = FileEditorManager.getInstance(event.getProject());
-
-        VirtualFile files[] = manager.getSelectedFiles();
-
-        for(VirtualFile file: files) {
-            String filePath = file.getPath();
-            try {
-                //TODO hier wird ein string benötigt
-                ReadabilityResult result = api.processCodeSnippet(filePath,false,null);
-                System.out.println("Your file achieved the score  " +  result.getReadability());
-                System.out.println( "Readability Result for " + file.getName());
-
-            }
-            catch (ReadabilityProcessException error) {
-                System.err.println("Failed to process file " + filePath + " from toolbar:");
-                System.err.println(error);
-            }
+        Project project = event.getProject();
+        if(project == null) {
+            return;
         }
 
+        ProjectRootManager rootManager = ProjectRootManager.getInstance(project);
+        project.getService(ProjectAnalysisService.class).analyse(Arrays.asList(rootManager.getContentRoots()));
     }
 }
@@ -0,0 +1,487 @@
+package de.uni_passau.fim.readability_plugin.cli;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiJavaFile;
+import de.uni_passau.fim.readability_plugin.java_parsing.JavaFileParser;
+import de.uni_passau.fim.readability_plugin.java_parsing.JavaParseTree;
+import de.uni_passau.fim.readability_plugin.readability.CoalescingReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.NativeMetricsReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.PooledReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityProcessException;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityReport;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityResult;
+import de.uni_passau.fim.readability_plugin.readability.ScoreStore;
+import de.uni_passau.fim.readability_plugin.readability.ScoringExecutor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Headless entry point to rate all java methods of a source tree without opening it as project (e.g. in CI).
+ * The starter is registered as "readability-score" in the plugin.xml and can be run with the IDE launcher
+ * or with the scoreReadability gradle task:
+ *
+ *   idea.sh readability-score &lt;source dir&gt; [--format json|csv] [--output file] [--threshold t]
+ *                               [--workers n] [--max-failures n]
+ *
+ * The java files are parsed from text (they do not have to belong to a project) and the methods of every file are
+ * rated as one batch. The files are processed in parallel by a ScoringExecutor, every worker of the RSE worker
+ * pool rates one method at a time. Results of earlier runs are taken from the ScoreStore.
+ *
+ * Every rated method is streamed to the output (a json array or csv rows) as soon as its file is rated, so the
+ * memory does not grow with the size of the source tree. The summary (see ReadabilityReport) is printed to stdout,
+ * or to stderr if the results are streamed to stdout.
+ *
+ * Exit codes: 0 if the mean readability reaches the threshold, 1 if it is below the threshold,
+ * 2 if the arguments are invalid or the source tree could not be rated: no method was rated at all, or more
+ * methods and files failed than allowed by --max-failures (0 by default).
+ */
+public class HeadlessScorer implements ApplicationStarter {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_BELOW_THRESHOLD = 1;
+    public static final int EXIT_ERROR = 2;
+
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final ConcurrentLinkedQueue<Future<?>> ratings = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public boolean isHeadless() {
+        return true;
+    }
+
+    @Override
+    public void main(List<String> args) {
+        int exitCode;
+        try {
+            exitCode = run(Options.parse(args.subList(1, args.size())));
+        }
+        catch (IllegalArgumentException error) {
+            System.err.println(error.getMessage());
+            System.err.println(Options.USAGE);
+            exitCode = EXIT_ERROR;
+        }
+        catch (InterruptedException cancelled) {
+            System.err.println("Readability scoring was cancelled");
+            exitCode = EXIT_ERROR;
+        }
+        catch (Exception error) {
+            error.printStackTrace();
+            exitCode = EXIT_ERROR;
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Rate the source tree and write the results
+     * @param options the parsed command line options
+     * @return the exit code
+     * @throws IOException if the source tree could not be read or the results could not be written
+     */
+    private int run(Options options) throws IOException, InterruptedException {
+        //the headless run is the whole application, so the workers define the application wide pool size
+        System.setProperty(PooledReadabilityApi.POOL_SIZE_PROPERTY, String.valueOf(options.workers));
+        ReadabilityApi api = new CoalescingReadabilityApi(new NativeMetricsReadabilityApi(
+                PooledReadabilityApi.getInstance()));
+        ScoreStore scoreStore = ScoreStore.getInstance();
+        ReadabilityReport report = new ReadabilityReport();
+        Project defaultProject = ProjectManager.getInstance().getDefaultProject();
+
+        ScoringExecutor executor = new ScoringExecutor("Headless readability scoring", options.workers, QUEUE_CAPACITY);
+        try (ResultWriter writer = ResultWriter.create(options.format, options.output)) {
+            try (Stream<Path> files = Files.walk(options.sourceRoot)) {
+                files.filter(file -> file.toString().endsWith(".java") && Files.isRegularFile(file))
+                        .forEach(file -> {
+                            ratings.add(executor.submit(() -> {
+                                try {
+                                    rateFile(file, options.sourceRoot, defaultProject, api, scoreStore, writer, report);
+                                }
+                                catch (CancellationException cancelled) {
+                                    throw cancelled;
+                                }
+                                catch (IOException | RuntimeException error) {
+                                    System.err.println("Failed to rate file: " + file);
+                                    System.err.println(error);
+                                    report.addFailedFile();
+                                }
+                                return null;
+                            }));
+                            removeFinishedRatings();
+                        });
+            }
+            for (Future<?> rating : ratings) {
+                try {
+                    rating.get();
+                }
+                catch (ExecutionException error) {
+                    if(error.getCause() instanceof CancellationException) {
+                        throw new InterruptedException("Rating was cancelled");
+                    }
+                    error.getCause().printStackTrace();
+                    report.addFailedFile();
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        //the summary must not be mixed into the results if they are streamed to stdout
+        PrintStream summary = options.output == null ? System.err : System.out;
+        summary.println(report);
+        if(report.getMethodCount() == 0) {
+            summary.println("No method of " + options.sourceRoot + " could be rated");
+            return EXIT_ERROR;
+        }
+        long failures = report.getFailedMethodCount() + report.getFailedFileCount();
+        if(failures > options.maxFailures) {
+            summary.println(failures + " methods and files could not be rated, at most " + options.maxFailures
+                    + " failures are allowed");
+            return EXIT_ERROR;
+        }
+        double mean = report.getMean();
+        if(mean < options.threshold) {
+            summary.printf(Locale.ROOT, "Mean readability %.3f is below the threshold %.3f%n", mean, options.threshold);
+            return EXIT_BELOW_THRESHOLD;
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * Forget the futures of the files that were rated already, so the futures do not pile up for large trees
+     */
+    private void removeFinishedRatings() {
+        ratings.removeIf(Future::isDone);
+    }
+
+    /**
+     * Parse a java file, rate all of its methods with a single batch and write the results
+     */
+    private void rateFile(Path file, Path sourceRoot, Project defaultProject, ReadabilityApi api, ScoreStore scoreStore,
+                          ResultWriter writer, ReadabilityReport report) throws IOException {
+        String code = StringUtil.convertLineSeparators(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        String relativePath = sourceRoot.relativize(file).toString().replace('\\', '/');
+
+        List<JavaParseTree> methods;
+        try {
+            methods = ApplicationManager.getApplication().runReadAction((Computable<List<JavaParseTree>>) () -> {
+                PsiFile psiFile = PsiFileFactory.getInstance(defaultProject)
+                        .createFileFromText(file.getFileName().toString(), JavaFileType.INSTANCE, code);
+                return new JavaFileParser((PsiJavaFile) psiFile).getMethods();
+            });
+        }
+        catch (RuntimeException error) {
+            System.err.println("Failed to parse file: " + file);
+            System.err.println(error);
+            report.addFailedFile();
+            return;
+        }
+        report.addFile();
+
+        List<ReadabilityResult> results = new ArrayList<>();
+        List<String> unratedCode = new ArrayList<>();
+        List<PsiElement> unratedElements = new ArrayList<>();
+        for (JavaParseTree method : methods) {
+            ReadabilityResult storedResult = scoreStore.get(method.getCode());
+            results.add(storedResult);
+            if(storedResult == null) {
+                unratedCode.add(method.getCode());
+                unratedElements.add(method.getScopeElement());
+            }
+        }
+
+        if(!unratedCode.isEmpty()) {
+            List<ReadabilityResult> newResults = rateBatch(api, unratedCode, unratedElements);
+            int next = 0;
+            for (int i = 0; i < results.size(); i++) {
+                if(results.get(i) == null) {
+                    ReadabilityResult newResult = newResults.get(next++);
+                    results.set(i, newResult);
+                    if(newResult != null) {
+                        scoreStore.put(methods.get(i).getCode(), newResult);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < methods.size(); i++) {
+            JavaParseTree method = methods.get(i);
+            if(results.get(i) == null) {
+                report.addFailedMethod();
+                continue;
+            }
+            String methodName = method.getName().replace("method ", "");
+            double readability = results.get(i).getReadability();
+            report.addMethod(relativePath, methodName, method.getStartLine(), readability);
+            writer.write(relativePath, methodName, method.getStartLine(), method.getEndLine(), readability);
+        }
+    }
+
+    /**
+     * Rate the methods of a file with a single batch call, or one by one if the batch fails
+     * @return the results in the order of the given methods, a result is null if the method could not be rated
+     * @throws CancellationException if the rating thread got interrupted, the methods are not rated one by one then
+     */
+    private static List<ReadabilityResult> rateBatch(ReadabilityApi api, List<String> code, List<PsiElement> elements) {
+        try {
+            return api.processCodeSnippets(code, true, elements);
+        }
+        catch (ReadabilityProcessException batchError) {
+            if(batchError.isCancellation()) {
+                throw cancellation(batchError);
+            }
+            System.err.println(batchError);
+        }
+
+        List<ReadabilityResult> results = new ArrayList<>();
+        for (int i = 0; i < code.size(); i++) {
+            try {
+                results.add(api.processCodeSnippet(code.get(i), true, elements.get(i)));
+            }
+            catch (ReadabilityProcessException error) {
+                if(error.isCancellation()) {
+                    throw cancellation(error);
+                }
+                System.err.println(error);
+                results.add(null);
+            }
+        }
+        return results;
+    }
+
+    private static CancellationException cancellation(ReadabilityProcessException error) {
+        CancellationException cancelled = new CancellationException("Rating was cancelled");
+        cancelled.initCause(error);
+        return cancelled;
+    }
+
+    /**
+     * The command line options of the headless scorer
+     */
+    static class Options {
+        static final String USAGE = "Usage: readability-score <source dir> [--format json|csv] [--output file] "
+                + "[--threshold t] [--workers n] [--max-failures n]";
+
+        private Path sourceRoot;
+        private String format = "json";
+        private Path output;
+        private double threshold = 0;
+        private int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private long maxFailures = 0;
+
+        /**
+         * Parse the command line arguments (without the command name)
+         * @param args the arguments
+         * @return the options
+         * @throws IllegalArgumentException if the arguments are invalid
+         */
+        static Options parse(List<String> args) {
+            Options options = new Options();
+            for (int i = 0; i < args.size(); i++) {
+                String arg = args.get(i);
+                if(!arg.startsWith("--")) {
+                    if(options.sourceRoot != null) {
+                        throw new IllegalArgumentException("Only a single source dir is supported: " + arg);
+                    }
+                    options.sourceRoot = Paths.get(arg).toAbsolutePath().normalize();
+                    continue;
+                }
+                if(i + 1 >= args.size()) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                }
+                String value = args.get(++i);
+                try {
+                    switch (arg) {
+                        case "--format":
+                            if(!value.equals("json") && !value.equals("csv")) {
+                                throw new IllegalArgumentException("Unknown format: " + value);
+                            }
+                            options.format = value;
+                            break;
+                        case "--output":
+                            options.output = Paths.get(value);
+                            break;
+                        case "--threshold":
+                            options.threshold = Double.parseDouble(value);
+                            break;
+                        case "--workers":
+                            options.workers = Math.max(1, Integer.parseInt(value));
+                            break;
+                        case "--max-failures":
+                            options.maxFailures = Math.max(0, Long.parseLong(value));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                }
+                catch (NumberFormatException error) {
+                    throw new IllegalArgumentException("Invalid value of " + arg + ": " + value);
+                }
+            }
+            if(options.sourceRoot == null || !Files.isDirectory(options.sourceRoot)) {
+                throw new IllegalArgumentException("No source dir given");
+            }
+            return options;
+        }
+    }
+
+    /**
+     * Streams the rated methods to a file or stdout
+     */
+    abstract static class ResultWriter implements AutoCloseable {
+        protected final Writer out;
+        private final boolean closeOut;
+
+        private ResultWriter(Writer out, boolean closeOut) {
+            this.out = out;
+            this.closeOut = closeOut;
+        }
+
+        /**
+         * Create a writer for the given format
+         * @param format "json" or "csv"
+         * @param output the file to write to or null to write to stdout
+         * @return the writer, the header is already written
+         * @throws IOException if the output file could not be created
+         */
+        static ResultWriter create(String format, Path output) throws IOException {
+            Writer out = output == null
+                    ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                    : Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+            boolean closeOut = output != null;
+            ResultWriter writer = format.equals("csv") ? new CsvWriter(out, closeOut) : new JsonWriter(out, closeOut);
+            writer.begin();
+            return writer;
+        }
+
+        /**
+         * Write the rating of a method, can be called by multiple threads
+         */
+        synchronized void write(String file, String method, int startLine, int endLine, double readability) throws IOException {
+            writeMethod(file, method, startLine, endLine, readability);
+        }
+
+        protected abstract void begin() throws IOException;
+
+        protected abstract void writeMethod(String file, String method, int startLine, int endLine, double readability) throws IOException;
+
+        protected abstract void end() throws IOException;
+
+        @Override
+        public synchronized void close() throws IOException {
+            end();
+            if(closeOut) {
+                out.close();
+            }
+            else {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Writes the rated methods as json array of objects
+     */
+    static class JsonWriter extends ResultWriter {
+        private boolean first = true;
+
+        private JsonWriter(Writer out, boolean closeOut) {
+            super(out, closeOut);
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            out.write("[\n");
+        }
+
+        @Override
+        protected void writeMethod(String file, String method, int startLine, int endLine, double readability) throws IOException {
+            out.write(first ? "  " : ",\n  ");
+            first = false;
+            out.write(String.format(Locale.ROOT, "{\"file\": %s, \"method\": %s, \"startLine\": %d, \"endLine\": %d, \"readability\": %.6f}",
+                    quote(file), quote(method), startLine, endLine, readability));
+        }
+
+        @Override
+        protected void end() throws IOException {
+            out.write(first ? "]\n" : "\n]\n");
+        }
+
+        static String quote(String text) {
+            StringBuilder quoted = new StringBuilder("\"");
+            for (char c : text.toCharArray()) {
+                switch (c) {
+                    case '"': quoted.append("\\\""); break;
+                    case '\\': quoted.append("\\\\"); break;
+                    case '\n': quoted.append("\\n"); break;
+                    case '\r': quoted.append("\\r"); break;
+                    case '\t': quoted.append("\\t"); break;
+                    default:
+                        if(c < 0x20) {
+                            quoted.append(String.format("\\u%04x", (int) c));
+                        }
+                        else {
+                            quoted.append(c);
+                        }
+                }
+            }
+            return quoted.append('"').toString();
+        }
+    }
+
+    /**
+     * Writes the rated methods as csv rows with a header
+     */
+    static class CsvWriter extends ResultWriter {
+        private CsvWriter(Writer out, boolean closeOut) {
+            super(out, closeOut);
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            out.write("file,method,start_line,end_line,readability\n");
+        }
+
+        @Override
+        protected void writeMethod(String file, String method, int startLine, int endLine, double readability) throws IOException {
+            out.write(String.format(Locale.ROOT, "%s,%s,%d,%d,%.6f\n", quote(file), quote(method), startLine, endLine, readability));
+        }
+
+        @Override
+        protected void end() {
+        }
+
+        static String quote(String text) {
+            if(text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0) {
+                return text;
+            }
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package de.uni_passau.fim.readability_plugin.dialogues;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.components.JBScrollPane;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityReport;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * This dialogue displays the readability report of a bulk analysis (of a directory, module or the whole project)
+ * in the tool window of the plugin.
+ */
+public class ProjectReportDialogue {
+
+    private Project project;
+
+    /**
+     * The dialogue is displayed in the tool window of the given project
+     * @param project the analysed project
+     */
+    public ProjectReportDialogue(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Display the summary of the report in the tool window
+     * @param report the report of the bulk analysis
+     */
+    public void showReport(ReadabilityReport report) {
+        JTextArea reportText = new JTextArea(report.toString());
+        reportText.setEditable(false);
+        reportText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, reportText.getFont().getSize()));
+
+        JPanel content = new JPanel();
+        content.setLayout(new BoxLayout(content, BoxLayout.Y_AXIS));
+        content.add(new JBScrollPane(reportText));
+        ReadabilityDetailsDialogue.displayToolWindow(project, "Readability Report", content, true);
+    }
+}
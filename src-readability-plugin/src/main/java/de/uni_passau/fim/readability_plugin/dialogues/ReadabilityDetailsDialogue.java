@@ -1,6 +1,7 @@
 package de.uni_passau.fim.readability_plugin.dialogues;
 
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -14,6 +15,8 @@ import com.intellij.ui.content.ContentManager;
 import com.intellij.ui.treeStructure.Tree;
 import de.uni_passau.fim.readability_plugin.java_parsing.JavaParseTree;
 import de.uni_passau.fim.readability_plugin.painting.RatedJavaScope;
+import de.uni_passau.fim.readability_plugin.readability.BoundedCache;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityCaches;
 import de.uni_passau.fim.readability_plugin.readability.ReadabilityImprover;
 import de.uni_passau.fim.readability_plugin.readability.ReadabilityImprover.Improvement;
 import de.uni_passau.fim.readability_plugin.readability.ReadabilityProcessException;
@@ -24,6 +27,7 @@ import freemarker.template.TemplateException;
 import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeNode;
 import java.awt.*;
 import java.io.IOException;
 import java.util.*;
@@ -48,7 +52,10 @@ public class ReadabilityDetailsDialogue {
     private RatedJavaScope ratedMethod;
     private ReadabilityService readabilityService;
     private int totalProgressSteps;
-    private static Map<String,DefaultMutableTreeNode> treeCache = new HashMap<>();
+    private static final long TREE_CACHE_BYTES = 8L << 20;
+    private static final long CANCEL_CHECK_MILLIS = 100;
+    private static final BoundedCache<DefaultMutableTreeNode> treeCache = ReadabilityCaches.getInstance()
+            .createCache("readability trees", TREE_CACHE_BYTES, ReadabilityDetailsDialogue::weighTree);
 
     /**
      * In order to display the details the constructor of the class.
@@ -93,9 +100,11 @@ public class ReadabilityDetailsDialogue {
      * @param scope the java scope corresponding to the given tree node
      * @param foundChildren the number of children (scopes) already found in the parsed java method
      * @param completionService used to rate the different children asynchronous in parallel
+     * @param ratings collects the futures of the submitted ratings, so they can be cancelled
      * @return the number of found children after the children of the given scopes were rated recursively
      */
-    private int rateChildrenAsync(DefaultMutableTreeNode rating, JavaParseTree scope, int foundChildren, CompletionService<Void> completionService) {
+    private int rateChildrenAsync(DefaultMutableTreeNode rating, JavaParseTree scope, int foundChildren,
+                                  CompletionService<Void> completionService, List<Future<Void>> ratings) {
 
         for(JavaParseTree child: scope.getChildren()) {
 
@@ -104,27 +113,29 @@ public class ReadabilityDetailsDialogue {
                 //some codeblocks could be rated but are no blocks beginning and ending with curly brackets.
                 //this codeblocks will be skipped and the tree will be built with their children
                 if(child.isCodeBlock()) {
-                    foundChildren = rateChildrenAsync(rating,child,foundChildren,completionService);
+                    foundChildren = rateChildrenAsync(rating,child,foundChildren,completionService,ratings);
                 }
                 continue;
             }
             DefaultMutableTreeNode ratingChild = new DefaultMutableTreeNode();
             rating.add(ratingChild);
             foundChildren++;
-            completionService.submit(() -> {
+            ratings.add(completionService.submit(() -> {
                 ReadabilityResult result = readabilityService.rateSnippet(child.getCode(), child.getScopeElement());
 
                 ratingChild.setUserObject(createTreeText(child, result.getReadability()));
                 return null;
-            });
+            }));
 
-            foundChildren = rateChildrenAsync(ratingChild,child, foundChildren,completionService);
+            foundChildren = rateChildrenAsync(ratingChild,child, foundChildren,completionService,ratings);
         }
         return foundChildren;
     }
 
     /**
-     * Creates the readability tree for the rated method provided to the Dialogue Object
+     * Creates the readability tree for the rated method provided to the Dialogue Object.
+     * Cancelling the progress indicator cancels the ratings of the tree, the partial tree is neither cached
+     * nor displayed.
      * @param progressIndicator an indicator the display the completion percentage of the tree construction in the ui
      * @return the constructed readability tree
      */
@@ -134,9 +145,10 @@ public class ReadabilityDetailsDialogue {
         JavaParseTree methodTree = ratedMethod.getAssociatedScope();
 
         String methodCode = methodTree.getCode();
-        if(treeCache.containsKey(methodCode)) {
+        DefaultMutableTreeNode cachedTree = treeCache.get(methodCode);
+        if(cachedTree != null) {
             progressIndicator.setFraction(1);
-            return treeCache.get(methodCode);
+            return cachedTree;
         }
 
         List<JavaParseTree> blocksRequiringRating = new ArrayList<>();
@@ -152,18 +164,28 @@ public class ReadabilityDetailsDialogue {
 
         if(totalProgressSteps != 1) {
 
-            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-            CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
-            int numChildren = rateChildrenAsync(root,methodTree,0,completionService);
+            //the children are rated on the scoring executor of the project,
+            //so building many trees at once does not exceed the scoring parallelism
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(readabilityService.getScoringExecutor());
+            List<Future<Void>> ratings = new ArrayList<>();
+            int numChildren = rateChildrenAsync(root,methodTree,0,completionService,ratings);
 
             try {
-                for (int i = 0; i < numChildren; i++) {
-                    completionService.take();
+                for (int finished = 0; finished < numChildren; ) {
+                    if(completionService.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS) != null) {
+                        finished++;
+                    }
+                    progressIndicator.checkCanceled();
                 }
             } catch (InterruptedException e) {
+                //an incomplete tree must not be cached
                 Thread.currentThread().interrupt();
+                throw new ProcessCanceledException(e);
             } finally {
-                executor.shutdown();
+                //interrupting the running ratings destroys their model processes
+                for (Future<Void> rating : ratings) {
+                    rating.cancel(true);
+                }
             }
         }
 
@@ -172,6 +194,21 @@ public class ReadabilityDetailsDialogue {
 
     }
 
+    /**
+     * Estimate the memory retained by a readability tree: every node with its children list and its text
+     * @param root the root of the readability tree
+     * @return the estimated size in bytes
+     */
+    private static long weighTree(DefaultMutableTreeNode root) {
+        long weight = 0;
+        Enumeration<TreeNode> nodes = root.preorderEnumeration();
+        while (nodes.hasMoreElements()) {
+            Object text = ((DefaultMutableTreeNode) nodes.nextElement()).getUserObject();
+            weight += 96 + (text == null ? 0 : 56 + 2L * text.toString().length());
+        }
+        return weight;
+    }
+
     /**
      * Create the text to be displayed in a specific tree node
      * @param node the node to generate text for
@@ -202,7 +239,7 @@ public class ReadabilityDetailsDialogue {
         JTree tree = new Tree(treeModel);
         content.add(new JBScrollPane(tree));
         String title = "Readability Tree for Method: " + ratedMethod.getMethodName();
-        displayToolWindow(title,content,true);
+        displayToolWindow(project,title,content,true);
 
     }
 
@@ -254,7 +291,7 @@ public class ReadabilityDetailsDialogue {
         mainPanel.add(tabs,BorderLayout.CENTER);
         String title = "Readability hints for Method: " + ratedMethod.getMethodName();
         boolean focus = addedComponents > 0;
-        displayToolWindow(title,mainPanel,focus);
+        displayToolWindow(project,title,mainPanel,focus);
 
     }
 
@@ -283,11 +320,12 @@ public class ReadabilityDetailsDialogue {
     /**
      * Update the content displayed in a specific tab of the tool window.
      * The tool window has multiple tabs, therefore the tab to be displayed must be provided to this method.
+     * @param project the project whose tool window should display the content
      * @param title the title of the tab that should be displayed
      * @param content the content that should be display in the toolwindow
      * @param focus whether to bring the tool window to the foreground after updating the content or not.
      */
-    private void displayToolWindow(String title, JComponent content, boolean focus) {
+    static void displayToolWindow(Project project, String title, JComponent content, boolean focus) {
         ToolWindowManager toolWindowManager = ToolWindowManager.getInstance(project);
         ToolWindow toolWindow = toolWindowManager.getToolWindow("ReadabilityPlugin");
         if (toolWindow == null) {
@@ -1,10 +1,8 @@
 package de.uni_passau.fim.readability_plugin.java_parsing;
 
-import com.intellij.openapi.application.Application;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiJavaFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.PsiMethod;
@@ -25,6 +23,11 @@ public class JavaFileParser {
     /**
      * In order to parse a given java file the associated virtual file
      * and the currently opened IDE Project is required.
+     *
+     * Only the scopes of the file are parsed (see JavaParseTree.scopes, codeBlocks and docComment). The psi file is
+     * resolved and parsed in a single read action, which is a non-blocking read action if the parser is not used
+     * within a read action or on the dispatch thread.
+     * If the file was deleted meanwhile or is no java file, the parser provides no methods.
      * @param project
      * @param javaFile
      */
@@ -32,9 +35,25 @@ public class JavaFileParser {
         virtualJavaFile = javaFile;
 
         PsiManager psiManager = PsiManager.getInstance(project);
-        Application app = ApplicationManager.getApplication();
-        psiJavaFile = app.runReadAction((Computable<PsiJavaFile>) () -> (PsiJavaFile) psiManager.findFile(javaFile));
-        root = new JavaParseTree(psiJavaFile,psiJavaFile,null);
+        root = JavaParseTree.readAction(() -> {
+            PsiFile psiFile = javaFile.isValid() ? psiManager.findFile(javaFile) : null;
+            if(!(psiFile instanceof PsiJavaFile)) {
+                return null;
+            }
+            psiJavaFile = (PsiJavaFile) psiFile;
+            return JavaParseTree.parse(psiJavaFile,true);
+        });
+    }
+
+    /**
+     * Parse a java file that is not necessarily part of a project (e.g. created from text while rating
+     * a source tree without opening it as project).
+     * @param psiJavaFile the psi java file
+     */
+    public JavaFileParser(PsiJavaFile psiJavaFile) {
+        this.psiJavaFile = psiJavaFile;
+        virtualJavaFile = JavaParseTree.readAction(psiJavaFile::getVirtualFile);
+        root = JavaParseTree.readAction(() -> JavaParseTree.parse(psiJavaFile,true));
     }
 
     /**
@@ -42,6 +61,9 @@ public class JavaFileParser {
      * @return the parse trees
      */
     public List<JavaParseTree> getMethods() {
+        if(root == null) {
+            return List.of();
+        }
         return root.search(PsiMethod.class);
     }
 
@@ -50,7 +72,7 @@ public class JavaFileParser {
      * @return the code as a String
      */
     String getCode() {
-        return root.getCode();
+        return root == null ? "" : root.getCode();
     }
 
     /**
@@ -67,17 +89,25 @@ public class JavaFileParser {
      * end offset.
      *
      * offset here defines the index of a character in the java source file if the java files content is represented
-     * as a character array
+     * as a character array.
+     * White space at the borders of the range (e.g. the indentation of completely selected lines) is ignored.
+     * If the start and end offset are equal (e.g. the caret position) the innermost scope at this offset is provided.
      * @param startOffset the start offset
      * @param endOffset the end offset
-     * @return the parse tree of the surrounding java scope
+     * @return the parse tree of the surrounding java scope or null if the range is outside of the file
      */
     public JavaParseTree getSurroundingScope(int startOffset, int endOffset) {
-
-        int startLine = JavaParseTree.calcLineNumber(getCode(),startOffset);
-        int endLine = JavaParseTree.calcLineNumber(getCode(),endOffset);
-
-        return root.getSurroundingScope(startLine,endLine);
+        String code = getCode();
+        if(root == null || startOffset < 0 || endOffset > code.length() || startOffset > endOffset) {
+            return null;
+        }
+        while (startOffset < endOffset && Character.isWhitespace(code.charAt(startOffset))) {
+            startOffset++;
+        }
+        while (endOffset > startOffset && Character.isWhitespace(code.charAt(endOffset - 1))) {
+            endOffset--;
+        }
+        return root.getInnermostScope(startOffset, endOffset);
     }
 
 }
@@ -2,14 +2,15 @@ package de.uni_passau.fim.readability_plugin.java_parsing;
 
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.javadoc.PsiDocComment;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -48,51 +49,72 @@ public class JavaParseTree {
     public static List<Class> codeBlocks = List.of(PsiCodeBlock.class, PsiBlockStatement.class);
 
 
-    private List<JavaParseTree> children;
-    private JavaParseTree parent;
+    private ParsedJavaFile file;
+    private int index;
+    private PsiElement scopeElement;
     private int startLineNumber;
     private int endLineNumber;
+    private int startOffset;
+    private int endOffset;
     private String scopeCode;
     private String scopeName;
-    private PsiJavaFile javaFile;
-    private PsiElement scopeElement;
+    private boolean methodBody;
+    private boolean psiChild;
 
     /**
-     * Construct the scope using its associated objects in the psi library and the parent JavaParseTree scope object for
-     * the constructed scope (the scopes are represented as a tree)
+     * Parse a java file.
+     *
+     * The psi tree of the file is walked once, the resulting tree is stored flat in the ParsedJavaFile. If only the
+     * scopes (including code blocks and doc comments) are parsed, all other elements (e.g. expressions, tokens and
+     * white space) are skipped and the parsed elements within them become children of the nearest parsed ancestor.
+     * Must be called within a read action, the returned tree does not access the psi tree anymore.
      * @param javaFile the psi java file
+     * @param scopesOnly whether to parse only the scopes of the file or all psi elements
+     * @return the parse tree of the complete file
+     */
+    protected static JavaParseTree parse(PsiJavaFile javaFile, boolean scopesOnly) {
+        return new ParsedJavaFile(javaFile, scopesOnly).getRoot();
+    }
+
+    /**
+     * Construct the scope using its associated objects in the psi library and its position in the flat tree
+     * of the parsed java file.
+     * The constructor must be called within a read action.
+     * @param file the parsed java file containing the scope
+     * @param index the number of the scope in the parsed java file
      * @param scopeElement the psi java scope
-     * @param parent the parent parse tree instance
+     * @param psiChild whether the psi element is a direct child of the psi element of the parent
      */
-    protected JavaParseTree(PsiJavaFile javaFile, PsiElement scopeElement, JavaParseTree parent) {
-        this.children = new ArrayList<>();
-        this.parent = parent;
-        this.javaFile = javaFile;
+    JavaParseTree(ParsedJavaFile file, int index, PsiElement scopeElement, boolean psiChild) {
+        this.file = file;
+        this.index = index;
         this.scopeElement = scopeElement;
+        this.psiChild = psiChild;
 
-        Application app = ApplicationManager.getApplication();
-
-        scopeCode = app.runReadAction((Computable<String>) () -> scopeElement.getText());
-
-
-        int startOffset = app.runReadAction((Computable<Integer>) () -> scopeElement.getTextRange().getStartOffset());
-        int endOffset = app.runReadAction((Computable<Integer>) () -> scopeElement.getTextRange().getEndOffset());
-
-        String javaFileCode = app.runReadAction((Computable<String>) () -> javaFile.getText());
-        startLineNumber = calcLineNumber(javaFileCode,startOffset);
-        endLineNumber = calcLineNumber(javaFileCode,endOffset);
-
-        List<PsiElement> psiChildren =
-                app.runReadAction((Computable<List<PsiElement>>) () -> Arrays.asList(scopeElement.getChildren()));
+        TextRange range = scopeElement.getTextRange();
+        startOffset = range.getStartOffset();
+        endOffset = range.getEndOffset();
+        startLineNumber = file.lineIndex.getLine(startOffset);
+        endLineNumber = file.lineIndex.getLine(endOffset);
 
+        methodBody = isCodeBlock() && methodRoot.isInstance(scopeElement.getParent());
         scopeName = generateScopeName();
+    }
 
-        for(PsiElement psiChild : psiChildren) {
-            children.add(new JavaParseTree(javaFile,psiChild,this));
+    /**
+     * Run an action that accesses the psi tree.
+     * Within a read action or on the dispatch thread the action is run directly, otherwise in a non-blocking read
+     * action, which is restarted instead of blocking write actions.
+     * @param action the action to run
+     * @return the result of the action
+     * @param <T> the type of the result
+     */
+    static <T> T readAction(Computable<T> action) {
+        Application app = ApplicationManager.getApplication();
+        if(app.isReadAccessAllowed() || app.isDispatchThread()) {
+            return app.runReadAction(action);
         }
-
-
-
+        return ReadAction.nonBlocking(action::compute).executeSynchronously();
     }
 
     /**
@@ -134,7 +156,12 @@ public class JavaParseTree {
      * @return the source code
      */
     public String getCode() {
-        return scopeCode;
+        String code = scopeCode;
+        if(code == null) {
+            code = file.text.substring(startOffset, endOffset);
+            scopeCode = code;
+        }
+        return code;
     }
 
     /**
@@ -142,7 +169,8 @@ public class JavaParseTree {
      * @return the parent parse tree
      */
     public JavaParseTree getParent() {
-        return parent;
+        int parent = file.getParent(index);
+        return parent == ParsedJavaFile.NONE ? null : file.getNode(parent);
     }
 
     /**
@@ -150,6 +178,10 @@ public class JavaParseTree {
      * @return the child scopes as parse tree instances
      */
     public List<JavaParseTree> getChildren() {
+        List<JavaParseTree> children = new ArrayList<>();
+        for (int child = file.getFirstChild(index); child != ParsedJavaFile.NONE; child = file.getNextSibling(child)) {
+            children.add(file.getNode(child));
+        }
         return children;
     }
 
@@ -158,7 +190,25 @@ public class JavaParseTree {
      * @return the virtual file istance
      */
     public VirtualFile getJavaFile() {
-        return javaFile.getVirtualFile();
+        return file.javaFile.getVirtualFile();
+    }
+
+    int getStartOffset() {
+        return startOffset;
+    }
+
+    int getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Find the innermost scope of the java file containing a range of the code
+     * @param startOffset the start offset of the range
+     * @param endOffset the end offset of the range
+     * @return the innermost scope or null if no scope contains the range
+     */
+    JavaParseTree getInnermostScope(int startOffset, int endOffset) {
+        return file.getInnermostScope(startOffset, endOffset);
     }
 
     /**
@@ -175,7 +225,7 @@ public class JavaParseTree {
      * @return whether the parse tree is a leaf or not
      */
     public boolean isLeaf() {
-        return children.isEmpty();
+        return file.getFirstChild(index) == ParsedJavaFile.NONE;
     }
 
     /**
@@ -184,7 +234,7 @@ public class JavaParseTree {
      * @return whether the parse tree instance is the root or not
      */
     public boolean isRoot() {
-        return parent == null;
+        return file.getParent(index) == ParsedJavaFile.NONE;
     }
 
     /**
@@ -218,15 +268,11 @@ public class JavaParseTree {
                 .replace("comment", " comment");
 
 
-        Application app = ApplicationManager.getApplication();
         if(scopeElement instanceof PsiMethod) {
-
-            String methodName = app.runReadAction((Computable<String>) () -> ((PsiMethod) scopeElement).getName());
-            scopeName = scopeName + " " + methodName;
+            scopeName = scopeName + " " + ((PsiMethod) scopeElement).getName();
         }
         else if(scopeElement instanceof PsiClass) {
-            String className = app.runReadAction((Computable<String>) () -> ((PsiClass) scopeElement).getName());
-            scopeName = scopeName + " " + className;
+            scopeName = scopeName + " " + ((PsiClass) scopeElement).getName();
         }
 
         return scopeName;
@@ -266,25 +312,13 @@ public class JavaParseTree {
      * The types are defined by the corresponding child psi element child class
      * the psi element linked to the parse tree has.
      *
+     * The search does not walk the tree, it looks up the range of the subtree in the lists of nodes per type.
+     *
      * @param targetScopeTypes the classes to match the type of the scopes children.
-     * @return all children matching any of the given scope type classes.
+     * @return all children matching any of the given scope type classes in the order of the code, as unmodifiable list.
      */
     public List<JavaParseTree> search(@NotNull List<Class> targetScopeTypes) {
-        List<JavaParseTree> result = new ArrayList<>();
-        for(JavaParseTree child: children) {
-            PsiElement childElem = child.scopeElement;
-            boolean matchesAnyClass = false;
-            for(Class targetClass : targetScopeTypes) {
-                if(targetClass.isInstance(childElem)) {
-                    matchesAnyClass = true;
-                }
-            }
-            if(matchesAnyClass) {
-                result.add(child);
-            }
-            result.addAll(child.search(targetScopeTypes));
-        }
-        return result;
+        return file.search(index, targetScopeTypes);
     }
 
     /**
@@ -297,44 +331,43 @@ public class JavaParseTree {
      * @return the found surrounding scope or null if no scope was found
      */
     public JavaParseTree getSurroundingScope(int startLine, int endLine) {
-        if(isScope() && startLine >= this.startLineNumber && endLine <= this.endLineNumber) {
-            JavaParseTree surrounding = this;
-            for(JavaParseTree child: children) {
-                JavaParseTree childSurrounding = child.getSurroundingScope(startLine,endLine);
-                if(childSurrounding != null ) {
-                    surrounding = childSurrounding;
+        if(!surrounds(startLine, endLine)) {
+            return null;
+        }
+        JavaParseTree surrounding = this;
+        while (true) {
+            //if several children surround the lines, the last one is taken
+            JavaParseTree surroundingChild = null;
+            for (int child = file.getFirstChild(surrounding.index); child != ParsedJavaFile.NONE;
+                 child = file.getNextSibling(child)) {
+                JavaParseTree childScope = file.getNode(child);
+                //scopes reached through skipped psi elements are not descended into, those elements are no scopes
+                if(childScope.psiChild && childScope.surrounds(startLine, endLine)) {
+                    surroundingChild = childScope;
                 }
             }
-            return surrounding;
+            if(surroundingChild == null) {
+                return surrounding;
+            }
+            surrounding = surroundingChild;
         }
-        return null;
+    }
+
+    private boolean surrounds(int startLine, int endLine) {
+        return isScope() && startLine >= this.startLineNumber && endLine <= this.endLineNumber;
     }
 
     /**
      * Get the line number the character matched by a given offset is in.
      * if the java code is represented as a character array the offset defined the index to identify a specific
      * character in the code.
+     * The whole code is scanned on every call, use a LineIndex to look up several offsets of the same code.
      * @param code the source code the character defined by the offset is in
      * @param offset the offset defining the characters index in the scource code strig
      * @return the calculated line number (zero indexed)
      */
     protected static int calcLineNumber(String code, int offset) {
-        String[] lines = code.split("\n");
-        List<Integer> lineRanges = new ArrayList<Integer>();
-
-        for(String line: lines ) {
-            lineRanges.add(line.length()+1);
-        }
-
-        int prevRange = 0;
-        for (int i = 0; i < lineRanges.size(); i++) {
-            int range = prevRange + lineRanges.get(i);
-            if(prevRange <= offset && range >= offset) {
-                return i;
-            }
-            prevRange = range;
-        }
-        return lineRanges.size();
+        return new LineIndex(code).getLine(offset);
     }
 
     /**
@@ -369,10 +402,7 @@ public class JavaParseTree {
      * @return whether the parse tree is a method body or not
      */
     public boolean isMethodBody() {
-        if(isRoot()) {
-            return false;
-        }
-        return isCodeBlock() && methodRoot.isInstance(parent.scopeElement);
+        return methodBody;
     }
 
     /**
@@ -0,0 +1,93 @@
+package de.uni_passau.fim.readability_plugin.java_parsing;
+
+/**
+ * Maps character offsets of a java file to line numbers.
+ *
+ * The start offsets of all lines are computed once when the index is created, every lookup is a binary search
+ * over these offsets. One index is shared by all parse tree nodes of a file, so the file content is only scanned
+ * once instead of once per node.
+ *
+ * The line numbers are the same as the ones the parse trees always used:
+ * - the lines are the parts of the code split at '\n', without trailing empty lines
+ * - an offset is mapped to the first line i with lineStart(i) &lt;= offset &lt;= lineStart(i + 1), so the offset
+ *   directly behind the line break of a line still belongs to that line
+ * - offsets before the code or behind the last line are mapped to the number of lines
+ */
+public class LineIndex {
+
+    private final int[] lineStarts;
+    private final int lineCount;
+
+    /**
+     * Create the index of a java file
+     * @param code the content of the java file
+     */
+    public LineIndex(CharSequence code) {
+        int length = code.length();
+        int newlines = 0;
+        for (int i = 0; i < length; i++) {
+            if (code.charAt(i) == '\n') {
+                newlines++;
+            }
+        }
+
+        int[] starts = new int[newlines + 2];
+        int line = 0;
+        for (int i = 0; i < length; i++) {
+            if (code.charAt(i) == '\n') {
+                starts[++line] = i + 1;
+            }
+        }
+        //the end of the last line, as if it was terminated by a line break
+        starts[newlines + 1] = length + 1;
+
+        int lines = newlines + 1;
+        if (newlines > 0) {
+            //String.split drops trailing empty lines (but keeps a single line even if it is empty)
+            while (lines > 0 && lineLength(starts, lines - 1) == 0) {
+                lines--;
+            }
+        }
+        lineCount = lines;
+        lineStarts = starts;
+    }
+
+    private static int lineLength(int[] starts, int line) {
+        return starts[line + 1] - starts[line] - 1;
+    }
+
+    /**
+     * Get the zero indexed line containing a character offset
+     * @param offset the character offset in the code
+     * @return the line number
+     */
+    public int getLine(int offset) {
+        if (lineCount == 0 || offset < 0 || offset > lineStarts[lineCount]) {
+            return lineCount;
+        }
+        if (offset == 0) {
+            return 0;
+        }
+        //find the last line starting before the offset
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lineStarts[middle] < offset) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the number of lines of the code (without trailing empty lines)
+     * @return the number of lines
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+}
@@ -0,0 +1,384 @@
+package de.uni_passau.fim.readability_plugin.java_parsing;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parse tree of a java file, stored as a flat tree.
+ *
+ * The psi tree of the file is walked once. The parsed elements are numbered in preorder (the order of the code)
+ * and the structure of the tree is kept in int arrays: the parent, first child and next sibling of every node and
+ * the end of its subtree, so the subtree of node i consists of the nodes i + 1 until subtreeEnd(i) - 1.
+ *
+ * The walk also collects the ascending numbers of the nodes of every kind of scope (JavaParseTree.scopes,
+ * codeBlocks and docComment). Searching the nodes of one kind within a subtree is a binary search for the range
+ * of this posting list and does not copy any nodes. Posting lists of other kinds are collected on their first search.
+ *
+ * The code ranges of the scopes are indexed as nested intervals on the first lookup of a surrounding scope.
+ */
+class ParsedJavaFile {
+
+    static final int NONE = -1;
+
+    private static final List<Class> INDEXED_KINDS = indexedKinds();
+
+    final PsiJavaFile javaFile;
+    final String text;
+    final LineIndex lineIndex;
+    private final boolean scopesOnly;
+
+    private int size;
+    private JavaParseTree[] nodes;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] subtreeEnds;
+    private final Map<Class,int[]> postings = new ConcurrentHashMap<>();
+    private volatile ScopeIntervals scopeIntervals;
+
+    /**
+     * Parse a java file, must be called within a read action
+     * @param javaFile the psi java file
+     * @param scopesOnly whether to parse only the scopes of the file or all psi elements
+     */
+    ParsedJavaFile(PsiJavaFile javaFile, boolean scopesOnly) {
+        this.javaFile = javaFile;
+        this.text = javaFile.getText();
+        this.lineIndex = new LineIndex(text);
+        this.scopesOnly = scopesOnly;
+        new Walk().run();
+    }
+
+    private static List<Class> indexedKinds() {
+        List<Class> kinds = new ArrayList<>(JavaParseTree.scopes);
+        kinds.addAll(JavaParseTree.codeBlocks);
+        kinds.add(JavaParseTree.docComment);
+        return kinds;
+    }
+
+    /**
+     * Check whether a psi element becomes a node of the parse tree
+     * @param element the psi element
+     * @return true if all elements are parsed or if the element is a scope, code block or doc comment
+     */
+    private boolean isParsed(PsiElement element) {
+        if(!scopesOnly) {
+            return true;
+        }
+        for(Class kind : INDEXED_KINDS) {
+            if(kind.isInstance(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the node of the java file itself
+     * @return the root node
+     */
+    JavaParseTree getRoot() {
+        return nodes[0];
+    }
+
+    JavaParseTree getNode(int index) {
+        return nodes[index];
+    }
+
+    int getParent(int index) {
+        return parents[index];
+    }
+
+    int getFirstChild(int index) {
+        return firstChildren[index];
+    }
+
+    int getNextSibling(int index) {
+        return nextSiblings[index];
+    }
+
+    int getSubtreeEnd(int index) {
+        return subtreeEnds[index];
+    }
+
+    /**
+     * Get the nodes of the given kinds in the subtree of a node (excluding the node itself)
+     * @param index the node
+     * @param kinds the psi classes to match
+     * @return the matching nodes in preorder, as unmodifiable list
+     */
+    List<JavaParseTree> search(int index, List<Class> kinds) {
+        int from = index + 1;
+        int to = subtreeEnds[index];
+        if(kinds.size() == 1) {
+            int[] posting = getPosting(kinds.get(0));
+            return new NodeList(posting, lowerBound(posting, from), lowerBound(posting, to));
+        }
+
+        //a node can match several kinds, but is returned only once
+        BitSet matches = new BitSet();
+        for(Class kind : kinds) {
+            int[] posting = getPosting(kind);
+            for (int i = lowerBound(posting, from), end = lowerBound(posting, to); i < end; i++) {
+                matches.set(posting[i] - from);
+            }
+        }
+        int[] merged = new int[matches.cardinality()];
+        for (int i = matches.nextSetBit(0), next = 0; i >= 0; i = matches.nextSetBit(i + 1)) {
+            merged[next++] = i + from;
+        }
+        return new NodeList(merged, 0, merged.length);
+    }
+
+    /**
+     * Find the innermost scope containing a range of the code
+     * @param startOffset the start offset of the range
+     * @param endOffset the end offset of the range
+     * @return the innermost scope or null if no scope contains the range
+     */
+    JavaParseTree getInnermostScope(int startOffset, int endOffset) {
+        ScopeIntervals intervals = scopeIntervals;
+        if(intervals == null) {
+            intervals = new ScopeIntervals();
+            scopeIntervals = intervals;
+        }
+        return intervals.getInnermost(startOffset, endOffset);
+    }
+
+    private int[] getPosting(Class kind) {
+        return postings.computeIfAbsent(kind, newKind -> {
+            int[] posting = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if(newKind.isInstance(nodes[i].getScopeElement())) {
+                    posting[count++] = i;
+                }
+            }
+            return Arrays.copyOf(posting, count);
+        });
+    }
+
+    /**
+     * Find the first position in an ascending array holding a value of at least the key
+     * @param values the ascending values
+     * @param key the searched value
+     * @return the position, or the length of the array if all values are smaller
+     */
+    private static int lowerBound(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if(values[middle] < key) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * An unmodifiable view of the nodes of a range of a posting list
+     */
+    private class NodeList extends AbstractList<JavaParseTree> implements RandomAccess {
+        private final int[] indices;
+        private final int from;
+        private final int to;
+
+        private NodeList(int[] indices, int from, int to) {
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public JavaParseTree get(int index) {
+            if(index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return nodes[indices[from + index]];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /**
+     * The code ranges of all scopes (see JavaParseTree.isScope) as nested interval array.
+     *
+     * The scopes are ordered by their start offset (preorder) and every scope knows the innermost scope enclosing it.
+     * All scopes containing an offset are enclosing the last scope starting at or before the offset, so the innermost
+     * scope containing a range is found by a binary search for the start of the range followed by a walk over the
+     * enclosing scopes until one contains the end of the range as well.
+     * If two scopes touch (e.g. a try block and a catch section), the later scope contains the shared offset.
+     */
+    private class ScopeIntervals {
+        private final int[] scopes;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] enclosing;
+
+        private ScopeIntervals() {
+            //position of the innermost scope enclosing each node (including the node itself)
+            int[] innermost = new int[size];
+            int[] scopeNodes = new int[size];
+            int[] enclosingScopes = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int enclosingScope = parents[i] == NONE ? NONE : innermost[parents[i]];
+                if(nodes[i].isScope()) {
+                    scopeNodes[count] = i;
+                    enclosingScopes[count] = enclosingScope;
+                    innermost[i] = count++;
+                }
+                else {
+                    innermost[i] = enclosingScope;
+                }
+            }
+
+            scopes = Arrays.copyOf(scopeNodes, count);
+            enclosing = Arrays.copyOf(enclosingScopes, count);
+            starts = new int[count];
+            ends = new int[count];
+            for (int k = 0; k < count; k++) {
+                starts[k] = nodes[scopes[k]].getStartOffset();
+                ends[k] = nodes[scopes[k]].getEndOffset();
+            }
+        }
+
+        private JavaParseTree getInnermost(int startOffset, int endOffset) {
+            //the last scope starting at or before the range
+            int scope = lowerBound(starts, startOffset + 1) - 1;
+            while (scope != NONE && ends[scope] < endOffset) {
+                scope = enclosing[scope];
+            }
+            return scope == NONE ? null : nodes[scopes[scope]];
+        }
+    }
+
+    /**
+     * The single walk over the psi tree that numbers the parsed elements and links them
+     */
+    private class Walk {
+        private PsiElement[] pendingElements = new PsiElement[64];
+        private int[] pendingParents = new int[64];
+        private int pendingCount;
+        private int[] lastChildren;
+        private final int[][] kindPostings = new int[INDEXED_KINDS.size()][16];
+        private final int[] kindCounts = new int[INDEXED_KINDS.size()];
+
+        private void run() {
+            nodes = new JavaParseTree[64];
+            parents = new int[64];
+            firstChildren = new int[64];
+            nextSiblings = new int[64];
+            lastChildren = new int[64];
+
+            pushChildren(javaFile, add(javaFile, NONE));
+            while (pendingCount > 0) {
+                ProgressManager.checkCanceled();
+                pendingCount--;
+                PsiElement element = pendingElements[pendingCount];
+                int parent = pendingParents[pendingCount];
+                pendingElements[pendingCount] = null;
+                if(isParsed(element)) {
+                    pushChildren(element, add(element, parent));
+                }
+                else {
+                    pushChildren(element, parent);
+                }
+            }
+
+            nodes = Arrays.copyOf(nodes, size);
+            parents = Arrays.copyOf(parents, size);
+            firstChildren = Arrays.copyOf(firstChildren, size);
+            nextSiblings = Arrays.copyOf(nextSiblings, size);
+
+            //children are numbered after their parent, so all subtrees are complete when their parent is reached
+            subtreeEnds = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                subtreeEnds[i] = Math.max(subtreeEnds[i], i + 1);
+                if(parents[i] != NONE) {
+                    subtreeEnds[parents[i]] = Math.max(subtreeEnds[parents[i]], subtreeEnds[i]);
+                }
+            }
+
+            for (int kind = 0; kind < kindPostings.length; kind++) {
+                postings.put(INDEXED_KINDS.get(kind), Arrays.copyOf(kindPostings[kind], kindCounts[kind]));
+            }
+        }
+
+        /**
+         * Push the psi children of an element, so they are popped in the order of the code
+         */
+        private void pushChildren(PsiElement element, int parent) {
+            PsiElement[] psiChildren = element.getChildren();
+            if(pendingCount + psiChildren.length > pendingElements.length) {
+                int capacity = Math.max(pendingElements.length * 2, pendingCount + psiChildren.length);
+                pendingElements = Arrays.copyOf(pendingElements, capacity);
+                pendingParents = Arrays.copyOf(pendingParents, capacity);
+            }
+            for (int i = psiChildren.length - 1; i >= 0; i--) {
+                pendingElements[pendingCount] = psiChildren[i];
+                pendingParents[pendingCount] = parent;
+                pendingCount++;
+            }
+        }
+
+        /**
+         * Number a parsed element and link it to its parent
+         * @return the number of the element
+         */
+        private int add(PsiElement element, int parent) {
+            if(size == nodes.length) {
+                int capacity = size * 2;
+                nodes = Arrays.copyOf(nodes, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                lastChildren = Arrays.copyOf(lastChildren, capacity);
+            }
+            int index = size++;
+            parents[index] = parent;
+            firstChildren[index] = NONE;
+            nextSiblings[index] = NONE;
+            lastChildren[index] = NONE;
+            if(parent != NONE) {
+                if(lastChildren[parent] == NONE) {
+                    firstChildren[parent] = index;
+                }
+                else {
+                    nextSiblings[lastChildren[parent]] = index;
+                }
+                lastChildren[parent] = index;
+            }
+
+            for (int kind = 0; kind < kindPostings.length; kind++) {
+                if(INDEXED_KINDS.get(kind).isInstance(element)) {
+                    if(kindCounts[kind] == kindPostings[kind].length) {
+                        kindPostings[kind] = Arrays.copyOf(kindPostings[kind], kindCounts[kind] * 2);
+                    }
+                    kindPostings[kind][kindCounts[kind]++] = index;
+                }
+            }
+
+            boolean psiChild = parent != NONE && element.getParent() == nodes[parent].getScopeElement();
+            nodes[index] = new JavaParseTree(ParsedJavaFile.this, index, element, psiChild);
+            return index;
+        }
+    }
+}
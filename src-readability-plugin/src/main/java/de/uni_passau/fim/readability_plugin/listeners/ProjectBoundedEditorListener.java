@@ -8,8 +8,7 @@ import com.intellij.openapi.roots.FileIndex;
 import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
-import de.uni_passau.fim.readability_plugin.readability.ReadabilityProcessException;
-import de.uni_passau.fim.readability_plugin.services.ReadabilityService;
+import de.uni_passau.fim.readability_plugin.services.AnalysisScheduler;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -18,16 +17,17 @@ import org.jetbrains.annotations.NotNull;
  * If a new file was opened and the file is a .java file the listener triggers a readability rating to get initial
  * values for the java methods in the file.
  * Those readability values are required to add the coloured gutter icons.
+ * If a java file is closed in its last editor, its pending and running analysis is cancelled.
  */
 public class ProjectBoundedEditorListener implements FileEditorManagerListener {
 
     private Project project;
-    private  ReadabilityService readabilityService;
+    private AnalysisScheduler analysisScheduler;
 
     ProjectBoundedEditorListener(Project project) {
         super();
         this.project = project;
-        this.readabilityService = project.getService(ReadabilityService.class);
+        this.analysisScheduler = project.getService(AnalysisScheduler.class);
 
     }
 
@@ -40,16 +40,22 @@ public class ProjectBoundedEditorListener implements FileEditorManagerListener {
      */
     @Override
     public void fileOpened(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
-        try {
-            if(javaOfProjectDidChange(file)) {
-                readabilityService.updateReadability(file);
-            }
-        }
-        catch (ReadabilityProcessException e) {
-            e.printStackTrace();
+        if(javaOfProjectDidChange(file)) {
+            analysisScheduler.scheduleNow(file);
         }
     }
 
+    /**
+     * Cancels the analysis of the closed file, as its gutter icons are not visible anymore.
+     * @param source
+     * @param file
+     */
+    @Override
+    public void fileClosed(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+        if(!source.isFileOpen(file)) {
+            analysisScheduler.cancel(file);
+        }
+    }
 
     /**
      * Check if a given file is a .java file and belongs to the currently opened projects.
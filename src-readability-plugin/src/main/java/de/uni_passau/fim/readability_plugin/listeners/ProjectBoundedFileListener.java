@@ -10,8 +10,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.psi.PsiJavaFile;
-import de.uni_passau.fim.readability_plugin.readability.ReadabilityProcessException;
-import de.uni_passau.fim.readability_plugin.services.ReadabilityService;
+import de.uni_passau.fim.readability_plugin.services.AnalysisScheduler;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
@@ -23,16 +22,17 @@ import java.util.concurrent.CompletableFuture;
  * A file change event will be triggered after the file were saved by the developer.
  * If the listener recognizes files changes in a java file he triggers a re-rating of the methods readability
  * in order to update the coloured gutter icons.
+ * The re-rating is scheduled by the AnalysisScheduler, so a file saved many times in a row is only re-rated once.
  */
 public class ProjectBoundedFileListener implements BulkFileListener {
 
     Project project;
-    ReadabilityService readabilityService;
+    AnalysisScheduler analysisScheduler;
 
     ProjectBoundedFileListener(Project project) {
         super();
         this.project = project;
-        this.readabilityService = project.getService(ReadabilityService.class);
+        this.analysisScheduler = project.getService(AnalysisScheduler.class);
 
     }
 
@@ -55,18 +55,11 @@ public class ProjectBoundedFileListener implements BulkFileListener {
     }
 
     /***
-     * Re-rates the readability of all methods of a java file and prints an error if
-     * the process failed.
+     * Schedules the re-rating of the readability of all methods of a java file.
      * @param event the event associated to the updated java file
      */
     private void processCodeUpdateEvent(VFileEvent event) {
-        try{
-            readabilityService.updateReadability(event.getFile());
-        }
-        catch (ReadabilityProcessException error) {
-            System.err.println("Failed to process file: " + event.getFile().getPath() + " after file update:");
-            System.out.println(error);
-        }
+        analysisScheduler.schedule(event.getFile());
     }
 
     /**
@@ -0,0 +1,48 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import java.util.List;
+
+/**
+ * Computes the metrics of the Buse and Weimer readability model used by the Scalabrino Model.
+ * Average metrics are the count of a code element divided by the number of lines of the snippet,
+ * maximum metrics are the highest count of a code element within a single line.
+ */
+public class BuseWeimerExtractor implements MetricExtractor {
+
+    @Override
+    public List<NativeMetric> getMetrics() {
+        return List.of(NativeMetric.BW_AVG_COMPARISONS, NativeMetric.BW_AVG_NUMBERS, NativeMetric.BW_AVG_PARENTHESIS,
+                NativeMetric.BW_MAX_LINE_LENGTH, NativeMetric.BW_MAX_NUMBER_OF_IDENTIFIERS, NativeMetric.BW_MAX_NUMBERS);
+    }
+
+    @Override
+    public void extract(TokenLineProfile profile, double[] values, int offset) {
+        int lineCount = profile.getLineCount();
+
+        values[offset + NativeMetric.BW_AVG_COMPARISONS.ordinal()] = average(profile.getComparisons(), lineCount);
+        values[offset + NativeMetric.BW_AVG_NUMBERS.ordinal()] = average(profile.getNumbers(), lineCount);
+        values[offset + NativeMetric.BW_AVG_PARENTHESIS.ordinal()] = average(profile.getParentheses(), lineCount);
+        values[offset + NativeMetric.BW_MAX_LINE_LENGTH.ordinal()] = max(profile.getLineLengths(), lineCount);
+        values[offset + NativeMetric.BW_MAX_NUMBER_OF_IDENTIFIERS.ordinal()] = max(profile.getIdentifiers(), lineCount);
+        values[offset + NativeMetric.BW_MAX_NUMBERS.ordinal()] = max(profile.getNumbers(), lineCount);
+    }
+
+    private static double average(int[] perLine, int lineCount) {
+        if (lineCount == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < lineCount; i++) {
+            sum += perLine[i];
+        }
+        return (double) sum / lineCount;
+    }
+
+    private static double max(int[] perLine, int lineCount) {
+        int max = 0;
+        for (int i = 0; i < lineCount; i++) {
+            max = Math.max(max, perLine[i]);
+        }
+        return max;
+    }
+}
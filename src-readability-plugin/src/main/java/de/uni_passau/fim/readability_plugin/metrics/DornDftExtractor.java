@@ -0,0 +1,37 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import java.util.List;
+
+/**
+ * Computes the frequency domain metrics of Dorn's readability model.
+ *
+ * Every metric treats the per line count of a code element (commas, comparisons, keywords, periods, spaces
+ * or the line length itself) as a signal over the lines of the snippet. The metric is the bandwidth of that signal:
+ * the number of frequencies with a non-vanishing coefficient in the discrete Fourier transform of the signal.
+ *
+ * The transforms run on primitive arrays that are reused per thread (see FourierTransform), so the metrics can be
+ * recomputed on every change of a method with several hundred lines.
+ */
+public class DornDftExtractor implements MetricExtractor {
+
+    private final ThreadLocal<FourierTransform> transforms = ThreadLocal.withInitial(FourierTransform::new);
+
+    @Override
+    public List<NativeMetric> getMetrics() {
+        return List.of(NativeMetric.DORN_DFT_COMMAS, NativeMetric.DORN_DFT_COMPARISONS, NativeMetric.DORN_DFT_KEYWORDS,
+                NativeMetric.DORN_DFT_LINE_LENGTHS, NativeMetric.DORN_DFT_PERIODS, NativeMetric.DORN_DFT_SPACES);
+    }
+
+    @Override
+    public void extract(TokenLineProfile profile, double[] values, int offset) {
+        int lineCount = profile.getLineCount();
+        FourierTransform transform = transforms.get();
+
+        values[offset + NativeMetric.DORN_DFT_COMMAS.ordinal()] = transform.bandwidth(profile.getCommas(), lineCount);
+        values[offset + NativeMetric.DORN_DFT_COMPARISONS.ordinal()] = transform.bandwidth(profile.getComparisons(), lineCount);
+        values[offset + NativeMetric.DORN_DFT_KEYWORDS.ordinal()] = transform.bandwidth(profile.getKeywords(), lineCount);
+        values[offset + NativeMetric.DORN_DFT_LINE_LENGTHS.ordinal()] = transform.bandwidth(profile.getLineLengths(), lineCount);
+        values[offset + NativeMetric.DORN_DFT_PERIODS.ordinal()] = transform.bandwidth(profile.getPeriods(), lineCount);
+        values[offset + NativeMetric.DORN_DFT_SPACES.ordinal()] = transform.bandwidth(profile.getSpaces(), lineCount);
+    }
+}
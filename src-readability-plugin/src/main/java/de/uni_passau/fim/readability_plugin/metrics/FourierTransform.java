@@ -0,0 +1,235 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Discrete Fourier transform of integer signals on primitive arrays.
+ *
+ * Signals whose length is a power of two are transformed with an iterative radix-2 FFT. All other lengths are
+ * transformed exactly (without padding the signal) using Bluestein's algorithm, which expresses the DFT as a
+ * convolution that is computed with radix-2 FFTs of the next power of two of at least 2n - 1.
+ *
+ * Work buffers, twiddle tables and the transformed chirp of the last used signal length are kept and only
+ * recomputed if a signal of another length is transformed, so repeated transforms do not allocate.
+ * An instance must therefore only be used by one thread at a time.
+ */
+class FourierTransform {
+
+    //coefficients below this fraction of the signal sum are rounding noise of the transform
+    private static final double RELATIVE_EPSILON = 1e-9;
+
+    private double[] magnitudeBuffer = new double[0];
+    private double[] re = new double[0];
+    private double[] im = new double[0];
+
+    private int twiddleSize;
+    private double[] cosTable = new double[0];
+    private double[] sinTable = new double[0];
+
+    private int chirpLength;
+    private int chirpFftSize;
+    private double[] chirpRe = new double[0];
+    private double[] chirpIm = new double[0];
+    private double[] chirpFftRe = new double[0];
+    private double[] chirpFftIm = new double[0];
+
+    /**
+     * Count the frequencies of a signal with a non-vanishing DFT coefficient, including the constant (k = 0)
+     * coefficient. A signal that is zero on every line has a bandwidth of 0, a signal with the same non-zero value on
+     * every line only has the constant coefficient (bandwidth 1), while irregularly repeating patterns spread over
+     * many frequencies.
+     * @param signal the signal values (only the first n entries are used)
+     * @param n the signal length
+     * @return the number of frequencies present in the signal
+     */
+    int bandwidth(int[] signal, int n) {
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += Math.abs(signal[i]);
+        }
+        if (sum == 0) {
+            return 0;
+        }
+
+        if (magnitudeBuffer.length < n) {
+            magnitudeBuffer = new double[Math.max(n, magnitudeBuffer.length * 2)];
+        }
+        magnitudes(signal, n, magnitudeBuffer);
+
+        double threshold = RELATIVE_EPSILON * sum;
+        int frequencies = 0;
+        for (int k = 0; k < n; k++) {
+            if (magnitudeBuffer[k] > threshold) {
+                frequencies++;
+            }
+        }
+        return frequencies;
+    }
+
+    /**
+     * Compute the magnitudes of the DFT coefficients of a signal
+     * @param signal the signal values (only the first n entries are used)
+     * @param n the signal length
+     * @param magnitudes the array to write the n magnitudes to
+     */
+    void magnitudes(int[] signal, int n, double[] magnitudes) {
+        if (n == 0) {
+            return;
+        }
+        if (Integer.bitCount(n) == 1) {
+            ensureWorkCapacity(n);
+            for (int i = 0; i < n; i++) {
+                re[i] = signal[i];
+                im[i] = 0;
+            }
+            fft(n, false);
+            for (int k = 0; k < n; k++) {
+                magnitudes[k] = Math.hypot(re[k], im[k]);
+            }
+            return;
+        }
+        bluestein(signal, n, magnitudes);
+    }
+
+    /**
+     * DFT of arbitrary length: X_k = w_k * sum_j (x_j * w_j) * conj(w_(k-j)) with the chirp w_k = e^(-i*pi*k^2/n).
+     * As |w_k| = 1 the magnitude of X_k equals the magnitude of the convolution.
+     */
+    private void bluestein(int[] signal, int n, double[] magnitudes) {
+        prepareChirp(n);
+        int m = chirpFftSize;
+        ensureWorkCapacity(m);
+
+        for (int j = 0; j < n; j++) {
+            re[j] = signal[j] * chirpRe[j];
+            im[j] = signal[j] * chirpIm[j];
+        }
+        for (int j = n; j < m; j++) {
+            re[j] = 0;
+            im[j] = 0;
+        }
+        fft(m, false);
+
+        for (int k = 0; k < m; k++) {
+            double r = re[k] * chirpFftRe[k] - im[k] * chirpFftIm[k];
+            double i = re[k] * chirpFftIm[k] + im[k] * chirpFftRe[k];
+            re[k] = r;
+            im[k] = i;
+        }
+        fft(m, true);
+
+        for (int k = 0; k < n; k++) {
+            magnitudes[k] = Math.hypot(re[k], im[k]) / m;
+        }
+    }
+
+    /**
+     * Compute the chirp of a signal length and the FFT of its conjugate (the convolution filter)
+     * @param n the signal length
+     */
+    private void prepareChirp(int n) {
+        if (chirpLength == n) {
+            return;
+        }
+        int m = Integer.highestOneBit(2 * n - 1);
+        if (m < 2 * n - 1) {
+            m <<= 1;
+        }
+
+        chirpRe = new double[n];
+        chirpIm = new double[n];
+        for (int k = 0; k < n; k++) {
+            //k^2 mod 2n keeps the angle small and exact for long signals
+            long square = (long) k * k % (2L * n);
+            double angle = Math.PI * square / n;
+            chirpRe[k] = Math.cos(angle);
+            chirpIm[k] = -Math.sin(angle);
+        }
+
+        ensureWorkCapacity(m);
+        for (int j = 0; j < m; j++) {
+            re[j] = 0;
+            im[j] = 0;
+        }
+        re[0] = chirpRe[0];
+        im[0] = -chirpIm[0];
+        for (int j = 1; j < n; j++) {
+            re[j] = chirpRe[j];
+            im[j] = -chirpIm[j];
+            re[m - j] = chirpRe[j];
+            im[m - j] = -chirpIm[j];
+        }
+        fft(m, false);
+        chirpFftRe = Arrays.copyOf(re, m);
+        chirpFftIm = Arrays.copyOf(im, m);
+
+        chirpLength = n;
+        chirpFftSize = m;
+    }
+
+    /**
+     * In place iterative radix-2 FFT of the first m entries of the work buffers (without scaling)
+     * @param m the transform size, a power of two
+     * @param inverse whether to compute the inverse transform
+     */
+    private void fft(int m, boolean inverse) {
+        prepareTwiddles(m);
+
+        for (int i = 1, j = 0; i < m; i++) {
+            int bit = m >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double swap = re[i];
+                re[i] = re[j];
+                re[j] = swap;
+                swap = im[i];
+                im[i] = im[j];
+                im[j] = swap;
+            }
+        }
+
+        double direction = inverse ? 1 : -1;
+        for (int length = 2; length <= m; length <<= 1) {
+            int half = length >> 1;
+            int step = m / length;
+            for (int start = 0; start < m; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cosTable[k * step];
+                    double wi = direction * sinTable[k * step];
+                    int u = start + k;
+                    int v = u + half;
+                    double tr = re[v] * wr - im[v] * wi;
+                    double ti = re[v] * wi + im[v] * wr;
+                    re[v] = re[u] - tr;
+                    im[v] = im[u] - ti;
+                    re[u] += tr;
+                    im[u] += ti;
+                }
+            }
+        }
+    }
+
+    private void prepareTwiddles(int m) {
+        if (twiddleSize == m) {
+            return;
+        }
+        cosTable = new double[m / 2];
+        sinTable = new double[m / 2];
+        for (int t = 0; t < m / 2; t++) {
+            double angle = 2 * Math.PI * t / m;
+            cosTable[t] = Math.cos(angle);
+            sinTable[t] = Math.sin(angle);
+        }
+        twiddleSize = m;
+    }
+
+    private void ensureWorkCapacity(int m) {
+        if (re.length < m) {
+            re = new double[m];
+            im = new double[m];
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import java.util.List;
+
+/**
+ * A native extractor computes a family of code metrics from the token profile of a code snippet.
+ */
+public interface MetricExtractor {
+
+    /**
+     * Get the metrics the extractor computes
+     * @return the metrics written by extract
+     */
+    List<NativeMetric> getMetrics();
+
+    /**
+     * Compute the metrics of the extractor and write them into their slots (see NativeMetric) of the value buffer.
+     * A buffer can hold the metrics of multiple snippets, the slots of the current snippet start at the given offset.
+     * @param profile the token profile of the code snippet
+     * @param values the value buffer
+     * @param offset the index of the first slot of the snippet within the buffer
+     */
+    void extract(TokenLineProfile profile, double[] values, int offset);
+}
@@ -0,0 +1,70 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+/**
+ * The code metrics of the Scalabrino Model that are computed within the plugin.
+ * Every metric is identified by the name the model uses for it, so natively computed values can be merged with
+ * (or replace) the metrics extracted by the RSE.jar.
+ *
+ * The ordinal of a metric is its slot within the value buffers filled by the extractors.
+ *
+ * A metric is exact if it reproduces the value of the RSE.jar. Metrics that only approximate the values the model
+ * (and the coefficients of the ReadabilityImprover) were fitted on must not replace the values of the RSE.jar.
+ *
+ * The textual metrics of the model (commented words, synonyms and text coherence) are not computed natively, they
+ * depend on the term splitting and the WordNet dictionary of the RSE.jar.
+ */
+public enum NativeMetric {
+    //'<' and '>' are told apart from type argument brackets by their spacing only (see TokenLineProfile)
+    BW_AVG_COMPARISONS("BW Avg comparisons", false),
+    BW_AVG_NUMBERS("BW Avg numbers"),
+    BW_AVG_PARENTHESIS("BW Avg parenthesis"),
+    BW_MAX_LINE_LENGTH("BW Max line length"),
+    BW_MAX_NUMBER_OF_IDENTIFIERS("BW Max number of identifiers"),
+    BW_MAX_NUMBERS("BW Max numbers"),
+    //the transform is tested against a naive DFT (see FourierTransformTest), the bandwidths are not yet compared
+    //with the values the RSE.jar extracts for a sample corpus
+    DORN_DFT_COMMAS("Dorn DFT Commas", false),
+    DORN_DFT_COMPARISONS("Dorn DFT Comparisons", false),
+    DORN_DFT_KEYWORDS("Dorn DFT Keywords", false),
+    DORN_DFT_LINE_LENGTHS("Dorn DFT LineLengths", false),
+    DORN_DFT_PERIODS("Dorn DFT Periods", false),
+    DORN_DFT_SPACES("Dorn DFT Spaces", false),
+    //the structural metrics are not yet compared with the values the RSE.jar extracts for a sample corpus
+    DORN_AREAS_COMMENTS("Dorn Areas Comments", false),
+    DORN_AREAS_IDENTIFIERS("Dorn Areas Identifiers", false),
+    DORN_AREAS_KEYWORDS_IDENTIFIERS("Dorn Areas Keywords/Identifiers", false),
+    DORN_VISUAL_Y_COMMENTS("Dorn Visual Y Comments", false),
+    DORN_VISUAL_Y_IDENTIFIERS("Dorn Visual Y Identifiers", false),
+    DORN_VISUAL_Y_KEYWORDS("Dorn Visual Y Keywords", false),
+    DORN_VISUAL_Y_NUMBERS("Dorn Visual Y Numbers", false),
+    DORN_ALIGN_BLOCKS("Dorn align blocks", false),
+    POSNETT_VOLUME("Posnett volume", false);
+
+    private final String metricName;
+    private final boolean exact;
+
+    NativeMetric(String metricName) {
+        this(metricName, true);
+    }
+
+    NativeMetric(String metricName, boolean exact) {
+        this.metricName = metricName;
+        this.exact = exact;
+    }
+
+    /**
+     * Get the name the model uses for the metric
+     * @return the metric name
+     */
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Check whether the natively computed value equals the value extracted by the RSE.jar
+     * @return false if the metric is only approximated
+     */
+    public boolean isExact() {
+        return exact;
+    }
+}
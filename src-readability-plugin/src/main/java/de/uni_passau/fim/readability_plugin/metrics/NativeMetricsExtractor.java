@@ -0,0 +1,160 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the code metrics of the Scalabrino Model within the plugin, without calling the RSE.jar.
+ *
+ * Every code snippet is lexed a single time into a TokenLineProfile, all registered extractors then work on that
+ * profile. The profiles are reused per thread, so extracting the metrics of many snippets does not allocate new
+ * arrays for every snippet.
+ *
+ * If only the exact metrics are requested (because the RSE.jar extracts the others anyway), extractors that do not
+ * compute any exact metric are skipped, and the snippet is not even lexed if no extractor remains.
+ */
+public class NativeMetricsExtractor {
+
+    private static final NativeMetric[] METRICS = NativeMetric.values();
+    public static final int METRIC_COUNT = METRICS.length;
+
+    /**
+     * Version of the extraction rules, must be increased whenever an extractor computes different values than before
+     */
+    public static final int VERSION = 1;
+
+    private static NativeMetricsExtractor instance;
+
+    private final List<MetricExtractor> extractors;
+    private final List<MetricExtractor> exactExtractors;
+    private final ThreadLocal<TokenLineProfile> profiles = ThreadLocal.withInitial(TokenLineProfile::new);
+
+    /**
+     * NativeMetricsExtractor is implemented as singleton as only one instance is required.
+     * @return the singleton instance of the NativeMetricsExtractor
+     */
+    public static synchronized NativeMetricsExtractor getInstance() {
+        if(instance == null) {
+            instance = new NativeMetricsExtractor();
+        }
+        return instance;
+    }
+
+    private NativeMetricsExtractor() {
+        extractors = List.of(new BuseWeimerExtractor(), new DornDftExtractor(), new StructuralExtractor());
+        List<MetricExtractor> exact = new ArrayList<>();
+        for (MetricExtractor extractor : extractors) {
+            if (extractor.getMetrics().stream().anyMatch(NativeMetric::isExact)) {
+                exact.add(extractor);
+            }
+        }
+        exactExtractors = List.copyOf(exact);
+    }
+
+    /**
+     * Check whether any metric is reproduced natively
+     * @return false if all native metrics are approximations
+     */
+    public boolean hasExactMetrics() {
+        return !exactExtractors.isEmpty();
+    }
+
+    /**
+     * Check whether all given metrics are reproduced natively, approximated metrics (see NativeMetric.isExact)
+     * do not count
+     * @param metricNames the metric names used by the model
+     * @return true if every metric is an exact NativeMetric
+     */
+    public boolean reproduces(Collection<String> metricNames) {
+        for (String metricName : metricNames) {
+            boolean covered = false;
+            for (NativeMetric metric : METRICS) {
+                if (metric.isExact() && metric.getMetricName().equals(metricName)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create a value buffer that can hold all native metrics of the given number of snippets.
+     * The metrics of the snippet i start at index i * METRIC_COUNT, followed by one slot per NativeMetric.
+     * @param snippetCount the number of snippets
+     * @return the new buffer
+     */
+    public double[] createBuffer(int snippetCount) {
+        return new double[snippetCount * METRIC_COUNT];
+    }
+
+    /**
+     * Compute the native metrics of a code snippet and write them into a value buffer
+     * @param code the code snippet
+     * @param values the buffer to write the metric values to
+     * @param offset the index of the first slot of the snippet within the buffer
+     * @param exactOnly whether to skip the extractors that only compute approximated metrics
+     */
+    public void extract(CharSequence code, double[] values, int offset, boolean exactOnly) {
+        List<MetricExtractor> used = exactOnly ? exactExtractors : extractors;
+        if (used.isEmpty()) {
+            return;
+        }
+        TokenLineProfile profile = profiles.get();
+        profile.profile(code);
+        for (MetricExtractor extractor : used) {
+            extractor.extract(profile, values, offset);
+        }
+    }
+
+    /**
+     * Compute the native metrics of multiple code snippets (e.g. all methods of a file) into a single buffer.
+     * The snippets share the token profile and the work buffers of the extractors, so no memory is allocated per
+     * snippet or metric.
+     * @param codes the code snippets
+     * @param exactOnly whether to skip the extractors that only compute approximated metrics
+     * @return the buffer holding the metrics of all snippets (see createBuffer)
+     */
+    public double[] extractAll(List<? extends CharSequence> codes, boolean exactOnly) {
+        double[] values = createBuffer(codes.size());
+        for (int i = 0; i < codes.size(); i++) {
+            extract(codes.get(i), values, i * METRIC_COUNT, exactOnly);
+        }
+        return values;
+    }
+
+    /**
+     * Compute all native metrics of a code snippet
+     * @param code the code snippet
+     * @param exactOnly whether to leave out the approximated metrics
+     * @return the metric values by the metric names used by the model
+     */
+    public Map<String,Double> extract(CharSequence code, boolean exactOnly) {
+        double[] values = createBuffer(1);
+        extract(code, values, 0, exactOnly);
+        return toMap(values, 0, exactOnly);
+    }
+
+    /**
+     * Convert the metrics of a snippet within a value buffer into a mapping from metric names to values
+     * @param values the value buffer
+     * @param offset the index of the first slot of the snippet within the buffer
+     * @param exactOnly whether to leave out the approximated metrics
+     * @return the metric values by the metric names used by the model
+     */
+    public static Map<String,Double> toMap(double[] values, int offset, boolean exactOnly) {
+        Map<String,Double> metrics = new HashMap<>();
+        for (NativeMetric metric : METRICS) {
+            if (!exactOnly || metric.isExact()) {
+                metrics.put(metric.getMetricName(), values[offset + metric.ordinal()]);
+            }
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,279 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the structural metrics of the Dorn and Posnett readability models with a single pass over the tokens
+ * of a snippet:
+ *
+ * - Dorn Areas: the share of the code characters covered by comments and by identifiers,
+ *   and the ratio between the characters of keywords and identifiers.
+ * - Dorn Visual Y: the code is seen as an image whose rows are the lines. Projecting the characters of comments,
+ *   identifiers, keywords and numbers onto the y-axis gives a signal per category, the metric is its bandwidth
+ *   (see FourierTransform).
+ * - Dorn align blocks: the number of blocks of at least two consecutive lines that have a token starting in the
+ *   same column.
+ * - Posnett volume: the Halstead volume N * log2(n) with N the number of operators (keywords, operators and
+ *   separators) and operands (identifiers and literals) and n the number of distinct ones.
+ *
+ * All intermediate values are kept in primitive arrays that are reused per thread.
+ */
+public class StructuralExtractor implements MetricExtractor {
+
+    private static final int CATEGORY_COMMENTS = 0;
+    private static final int CATEGORY_IDENTIFIERS = 1;
+    private static final int CATEGORY_KEYWORDS = 2;
+    private static final int CATEGORY_NUMBERS = 3;
+    private static final int CATEGORIES = 4;
+
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    @Override
+    public List<NativeMetric> getMetrics() {
+        return List.of(NativeMetric.DORN_AREAS_COMMENTS, NativeMetric.DORN_AREAS_IDENTIFIERS,
+                NativeMetric.DORN_AREAS_KEYWORDS_IDENTIFIERS, NativeMetric.DORN_VISUAL_Y_COMMENTS,
+                NativeMetric.DORN_VISUAL_Y_IDENTIFIERS, NativeMetric.DORN_VISUAL_Y_KEYWORDS,
+                NativeMetric.DORN_VISUAL_Y_NUMBERS, NativeMetric.DORN_ALIGN_BLOCKS, NativeMetric.POSNETT_VOLUME);
+    }
+
+    @Override
+    public void extract(TokenLineProfile profile, double[] values, int offset) {
+        Workspace workspace = workspaces.get();
+        workspace.reset(profile.getLineCount(), profile.getTokenCount());
+
+        CharSequence code = profile.getCode();
+        int[] kinds = profile.getTokenKinds();
+        int[] starts = profile.getTokenStarts();
+        int[] ends = profile.getTokenEnds();
+        int[] tokenLines = profile.getTokenLines();
+        int[] lineStarts = profile.getLineStarts();
+
+        long codeChars = 0;
+        long[] categoryChars = workspace.categoryChars;
+        int alignBlocks = 0;
+        int halsteadLength = 0;
+        int currentLine = -1;
+
+        for (int t = 0; t < profile.getTokenCount(); t++) {
+            int kind = kinds[t];
+            if (kind == TokenLineProfile.KIND_WHITESPACE) {
+                continue;
+            }
+
+            int line = tokenLines[t];
+            if (line != currentLine) {
+                alignBlocks += workspace.finishLine(currentLine, line);
+                currentLine = line;
+            }
+            workspace.addColumn(starts[t] - lineStarts[line]);
+
+            int category = category(kind);
+            long tokenChars = category >= 0 || kind == TokenLineProfile.KIND_LITERAL
+                    ? workspace.cover(code, starts[t], ends[t], line, category)
+                    : ends[t] - starts[t];
+            codeChars += tokenChars;
+            if (category >= 0) {
+                categoryChars[category] += tokenChars;
+            }
+
+            if (kind != TokenLineProfile.KIND_COMMENT) {
+                halsteadLength++;
+                boolean operand = kind == TokenLineProfile.KIND_IDENTIFIER || kind == TokenLineProfile.KIND_NUMBER
+                        || kind == TokenLineProfile.KIND_LITERAL;
+                workspace.addDistinct(code, starts[t], ends[t], operand);
+            }
+        }
+        alignBlocks += workspace.finishLine(currentLine, profile.getLineCount());
+
+        values[offset + NativeMetric.DORN_AREAS_COMMENTS.ordinal()] = ratio(categoryChars[CATEGORY_COMMENTS], codeChars);
+        values[offset + NativeMetric.DORN_AREAS_IDENTIFIERS.ordinal()] = ratio(categoryChars[CATEGORY_IDENTIFIERS], codeChars);
+        values[offset + NativeMetric.DORN_AREAS_KEYWORDS_IDENTIFIERS.ordinal()] =
+                ratio(categoryChars[CATEGORY_KEYWORDS], categoryChars[CATEGORY_IDENTIFIERS]);
+
+        int lineCount = profile.getLineCount();
+        values[offset + NativeMetric.DORN_VISUAL_Y_COMMENTS.ordinal()] = workspace.visualY(CATEGORY_COMMENTS, lineCount);
+        values[offset + NativeMetric.DORN_VISUAL_Y_IDENTIFIERS.ordinal()] = workspace.visualY(CATEGORY_IDENTIFIERS, lineCount);
+        values[offset + NativeMetric.DORN_VISUAL_Y_KEYWORDS.ordinal()] = workspace.visualY(CATEGORY_KEYWORDS, lineCount);
+        values[offset + NativeMetric.DORN_VISUAL_Y_NUMBERS.ordinal()] = workspace.visualY(CATEGORY_NUMBERS, lineCount);
+
+        values[offset + NativeMetric.DORN_ALIGN_BLOCKS.ordinal()] = alignBlocks;
+
+        int vocabulary = workspace.distinctCount;
+        values[offset + NativeMetric.POSNETT_VOLUME.ordinal()] =
+                vocabulary > 1 ? halsteadLength * (Math.log(vocabulary) / Math.log(2)) : 0;
+    }
+
+    private static int category(int kind) {
+        switch (kind) {
+            case TokenLineProfile.KIND_COMMENT:
+                return CATEGORY_COMMENTS;
+            case TokenLineProfile.KIND_IDENTIFIER:
+                return CATEGORY_IDENTIFIERS;
+            case TokenLineProfile.KIND_KEYWORD:
+                return CATEGORY_KEYWORDS;
+            case TokenLineProfile.KIND_NUMBER:
+                return CATEGORY_NUMBERS;
+            default:
+                return -1;
+        }
+    }
+
+    private static double ratio(long part, long total) {
+        return total == 0 ? 0 : (double) part / total;
+    }
+
+    /**
+     * The reusable buffers of a thread
+     */
+    private static class Workspace {
+        private final FourierTransform transform = new FourierTransform();
+        private final long[] categoryChars = new long[CATEGORIES];
+
+        //characters per line and category, stored as [category * capacity + line]
+        private int[] coverage = new int[0];
+        private int coverageCapacity;
+        private int[] coverageSignal = new int[0];
+
+        //token start columns and alignment run lengths of the previous and the current line
+        private int[] previousColumns = new int[16];
+        private int[] previousRuns = new int[16];
+        private int previousCount;
+        private int[] currentColumns = new int[16];
+        private int[] currentRuns = new int[16];
+        private int currentCount;
+
+        //open addressing set of the hashes of distinct operators and operands (0 marks an empty slot)
+        private long[] distinct = new long[64];
+        private int distinctCount;
+
+        private void reset(int lineCount, int tokenCount) {
+            Arrays.fill(categoryChars, 0);
+            if (coverageCapacity < lineCount) {
+                coverageCapacity = Math.max(lineCount, coverageCapacity * 2);
+                coverage = new int[CATEGORIES * coverageCapacity];
+                coverageSignal = new int[coverageCapacity];
+            }
+            else {
+                Arrays.fill(coverage, 0);
+            }
+
+            previousCount = 0;
+            currentCount = 0;
+
+            int distinctCapacity = Integer.highestOneBit(Math.max(tokenCount, 32) * 2) * 2;
+            if (distinct.length < distinctCapacity) {
+                distinct = new long[distinctCapacity];
+            }
+            else {
+                Arrays.fill(distinct, 0);
+            }
+            distinctCount = 0;
+        }
+
+        /**
+         * Add the characters of a token to the per line coverage of its category.
+         * Tokens spanning multiple lines (block comments, text blocks) are split at the line breaks.
+         * @return the number of characters of the token without line breaks
+         */
+        private long cover(CharSequence code, int start, int end, int line, int category) {
+            long chars = 0;
+            int lineChars = 0;
+            for (int i = start; i < end; i++) {
+                char c = code.charAt(i);
+                if (c == '\n') {
+                    addCoverage(category, line, lineChars);
+                    chars += lineChars;
+                    lineChars = 0;
+                    line++;
+                }
+                else if (c != '\r') {
+                    lineChars++;
+                }
+            }
+            addCoverage(category, line, lineChars);
+            return chars + lineChars;
+        }
+
+        private void addCoverage(int category, int line, int chars) {
+            if (category >= 0 && line < coverageCapacity) {
+                coverage[category * coverageCapacity + line] += chars;
+            }
+        }
+
+        private int visualY(int category, int lineCount) {
+            System.arraycopy(coverage, category * coverageCapacity, coverageSignal, 0, lineCount);
+            return transform.bandwidth(coverageSignal, lineCount);
+        }
+
+        private void addColumn(int column) {
+            if (currentCount == currentColumns.length) {
+                currentColumns = Arrays.copyOf(currentColumns, currentCount * 2);
+                currentRuns = Arrays.copyOf(currentRuns, currentCount * 2);
+            }
+            currentColumns[currentCount++] = column;
+        }
+
+        /**
+         * Compare the token columns of the finished line with the columns of the line above.
+         * A column continues an alignment run if the line above has a token in the same column;
+         * a run reaching two lines is a new align block. Lines without tokens end all runs.
+         * @param finishedLine the line whose columns were collected (-1 if none)
+         * @param nextLine the line the next token is in
+         * @return the number of new align blocks
+         */
+        private int finishLine(int finishedLine, int nextLine) {
+            if (finishedLine < 0) {
+                return 0;
+            }
+            int newBlocks = 0;
+            int p = 0;
+            for (int c = 0; c < currentCount; c++) {
+                while (p < previousCount && previousColumns[p] < currentColumns[c]) {
+                    p++;
+                }
+                boolean aligned = p < previousCount && previousColumns[p] == currentColumns[c];
+                currentRuns[c] = aligned ? previousRuns[p] + 1 : 1;
+                if (currentRuns[c] == 2) {
+                    newBlocks++;
+                }
+            }
+
+            int[] swap = previousColumns;
+            previousColumns = currentColumns;
+            currentColumns = swap;
+            swap = previousRuns;
+            previousRuns = currentRuns;
+            currentRuns = swap;
+            previousCount = nextLine == finishedLine + 1 ? currentCount : 0;
+            currentCount = 0;
+            return newBlocks;
+        }
+
+        /**
+         * Add the text of an operator or operand to the set of distinct tokens
+         */
+        private void addDistinct(CharSequence code, int start, int end, boolean operand) {
+            //64 bit FNV-1a hash of the token text, operands and operators with the same text are distinct
+            long hash = operand ? 0xcbf29ce484222325L : 0x84222325cbf29ce4L;
+            for (int i = start; i < end; i++) {
+                hash ^= code.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            if (hash == 0) {
+                hash = 1;
+            }
+
+            int mask = distinct.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (distinct[slot] != 0) {
+                if (distinct[slot] == hash) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            distinct[slot] = hash;
+            distinctCount++;
+        }
+    }
+}
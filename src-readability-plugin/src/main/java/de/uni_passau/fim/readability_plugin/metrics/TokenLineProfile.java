@@ -0,0 +1,396 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import com.intellij.lang.java.lexer.JavaLexer;
+import com.intellij.lexer.Lexer;
+import com.intellij.pom.java.LanguageLevel;
+import com.intellij.psi.JavaTokenType;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.impl.source.tree.ElementType;
+import com.intellij.psi.tree.IElementType;
+
+import java.util.Arrays;
+
+/**
+ * The native metric extractors work on the tokens of a code snippet and on counters per line of the snippet.
+ * This class runs IntelliJ's java lexer a single time over a code snippet and stores everything the extractors
+ * require in primitive arrays.
+ *
+ * A profile is meant to be reused: profiling the next snippet overwrites the arrays of the previous one and
+ * only grows them if the new snippet is larger. A profile (and its lexer) must therefore only be used by one
+ * thread at a time.
+ *
+ * Tokens are attributed to the line they start in. Lines are separated by '\n', a trailing '\r' does not count
+ * to the line length.
+ */
+public class TokenLineProfile {
+
+    public static final int KIND_WHITESPACE = 0;
+    public static final int KIND_COMMENT = 1;
+    public static final int KIND_IDENTIFIER = 2;
+    public static final int KIND_KEYWORD = 3;
+    public static final int KIND_NUMBER = 4;
+    public static final int KIND_LITERAL = 5;
+    public static final int KIND_OPERATOR = 6;
+    public static final int KIND_SEPARATOR = 7;
+
+    private static final int INITIAL_LINES = 64;
+    private static final int INITIAL_TOKENS = 512;
+
+    private final Lexer lexer = new JavaLexer(LanguageLevel.HIGHEST);
+
+    private CharSequence code;
+
+    private int lineCount;
+    private int[] lineStarts = new int[INITIAL_LINES + 1];
+    private int[] lineLengths = new int[INITIAL_LINES];
+    private int[] identifiers = new int[INITIAL_LINES];
+    private int[] numbers = new int[INITIAL_LINES];
+    private int[] parentheses = new int[INITIAL_LINES];
+    private int[] comparisons = new int[INITIAL_LINES];
+    private int[] commas = new int[INITIAL_LINES];
+    private int[] periods = new int[INITIAL_LINES];
+    private int[] keywords = new int[INITIAL_LINES];
+    private int[] spaces = new int[INITIAL_LINES];
+
+    private int tokenCount;
+    private int[] tokenKinds = new int[INITIAL_TOKENS];
+    private int[] tokenStarts = new int[INITIAL_TOKENS];
+    private int[] tokenEnds = new int[INITIAL_TOKENS];
+    private int[] tokenLines = new int[INITIAL_TOKENS];
+
+    /**
+     * Lex a code snippet and fill the line counters and token arrays for it
+     * @param code the code snippet to profile
+     */
+    public void profile(CharSequence code) {
+        this.code = code;
+        splitLines();
+        lexTokens();
+    }
+
+    /**
+     * Split the code into lines, storing the start offset, the length and the number of spaces of every line.
+     * lineStarts holds an additional entry pointing behind the last line.
+     */
+    private void splitLines() {
+        lineCount = 0;
+        int lineStart = 0;
+        int lineSpaces = 0;
+        for (int i = 0; i <= code.length(); i++) {
+            if (i < code.length() && code.charAt(i) != '\n') {
+                char c = code.charAt(i);
+                if (c == ' ' || c == '\t') {
+                    lineSpaces++;
+                }
+                continue;
+            }
+            ensureLineCapacity(lineCount + 1);
+            spaces[lineCount] = lineSpaces;
+            lineSpaces = 0;
+            int lineEnd = i > lineStart && code.charAt(i - 1) == '\r' ? i - 1 : i;
+            lineStarts[lineCount] = lineStart;
+            lineLengths[lineCount] = lineEnd - lineStart;
+            lineCount++;
+            lineStart = i + 1;
+        }
+        lineStarts[lineCount] = code.length() + 1;
+
+        Arrays.fill(identifiers, 0, lineCount, 0);
+        Arrays.fill(numbers, 0, lineCount, 0);
+        Arrays.fill(parentheses, 0, lineCount, 0);
+        Arrays.fill(comparisons, 0, lineCount, 0);
+        Arrays.fill(commas, 0, lineCount, 0);
+        Arrays.fill(periods, 0, lineCount, 0);
+        Arrays.fill(keywords, 0, lineCount, 0);
+    }
+
+    /**
+     * Run the lexer over the code, classify every token and update the counters of the line it starts in.
+     */
+    private void lexTokens() {
+        tokenCount = 0;
+        int line = 0;
+        lexer.start(code);
+        for (IElementType type = lexer.getTokenType(); type != null; lexer.advance(), type = lexer.getTokenType()) {
+            int start = lexer.getTokenStart();
+            while (start >= lineStarts[line + 1]) {
+                line++;
+            }
+
+            ensureTokenCapacity(tokenCount + 1);
+            int kind = classify(type);
+            tokenKinds[tokenCount] = kind;
+            tokenStarts[tokenCount] = start;
+            tokenEnds[tokenCount] = lexer.getTokenEnd();
+            tokenLines[tokenCount] = line;
+            tokenCount++;
+
+            if (kind == KIND_IDENTIFIER) {
+                identifiers[line]++;
+            }
+            else if (kind == KIND_NUMBER) {
+                numbers[line]++;
+            }
+            else if (kind == KIND_KEYWORD) {
+                keywords[line]++;
+            }
+            else if (type == JavaTokenType.COMMA) {
+                commas[line]++;
+            }
+            else if (type == JavaTokenType.DOT) {
+                periods[line]++;
+            }
+            else if (type == JavaTokenType.LPARENTH) {
+                parentheses[line]++;
+            }
+            else if (isComparison(type)) {
+                comparisons[line]++;
+            }
+        }
+        dropTypeArgumentComparisons();
+    }
+
+    /**
+     * The lexer does not know whether '<' and '>' are comparisons or the brackets of type arguments.
+     * Brackets of type arguments are written without surrounding spaces, comparisons usually are not.
+     * Therefore, '<' and '>' are only kept as comparison if they are surrounded by whitespace
+     * or directly touch a number. A '>' directly followed by '=' is lexed as two tokens and treated as '>='.
+     * Unspaced comparisons like "i<n" are dropped as well, so the comparison counts are only approximations
+     * (see NativeMetric.isExact).
+     */
+    private void dropTypeArgumentComparisons() {
+        for (int i = 0; i < tokenCount; i++) {
+            if (!isAngleBracket(i)) {
+                continue;
+            }
+            int next = i + 1;
+            if (next < tokenCount && tokenStarts[next] == tokenEnds[i] && code.charAt(tokenStarts[next]) == '='
+                    && tokenEnds[next] - tokenStarts[next] == 1) {
+                next++;
+            }
+            boolean spaced = i > 0 && next < tokenCount
+                    && tokenKinds[i - 1] == KIND_WHITESPACE && tokenKinds[next] == KIND_WHITESPACE;
+            boolean nextToNumber = (i > 0 && tokenKinds[i - 1] == KIND_NUMBER)
+                    || (next < tokenCount && tokenKinds[next] == KIND_NUMBER);
+            if (!spaced && !nextToNumber) {
+                comparisons[tokenLines[i]]--;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the token at the given index is a single '<' or '>'
+     * @param index the token index
+     * @return whether the token is an angle bracket
+     */
+    private boolean isAngleBracket(int index) {
+        if (tokenEnds[index] - tokenStarts[index] != 1) {
+            return false;
+        }
+        char bracket = code.charAt(tokenStarts[index]);
+        return bracket == '<' || bracket == '>';
+    }
+
+    private static boolean isComparison(IElementType type) {
+        return type == JavaTokenType.EQEQ || type == JavaTokenType.NE || type == JavaTokenType.LT
+                || type == JavaTokenType.GT || type == JavaTokenType.LE || type == JavaTokenType.GE;
+    }
+
+    /**
+     * Map a token type of the lexer to the token kinds used by the extractors
+     * @param type the token type
+     * @return the token kind
+     */
+    private static int classify(IElementType type) {
+        if (type == TokenType.WHITE_SPACE) {
+            return KIND_WHITESPACE;
+        }
+        if (ElementType.JAVA_COMMENT_BIT_SET.contains(type)) {
+            return KIND_COMMENT;
+        }
+        if (type == JavaTokenType.IDENTIFIER) {
+            return KIND_IDENTIFIER;
+        }
+        if (type == JavaTokenType.INTEGER_LITERAL || type == JavaTokenType.LONG_LITERAL
+                || type == JavaTokenType.FLOAT_LITERAL || type == JavaTokenType.DOUBLE_LITERAL) {
+            return KIND_NUMBER;
+        }
+        if (type == JavaTokenType.STRING_LITERAL || type == JavaTokenType.CHARACTER_LITERAL
+                || type == JavaTokenType.TEXT_BLOCK_LITERAL) {
+            return KIND_LITERAL;
+        }
+        if (ElementType.KEYWORD_BIT_SET.contains(type)) {
+            return KIND_KEYWORD;
+        }
+        if (ElementType.OPERATION_BIT_SET.contains(type)) {
+            return KIND_OPERATOR;
+        }
+        return KIND_SEPARATOR;
+    }
+
+    private void ensureLineCapacity(int lines) {
+        if (lines < lineLengths.length) {
+            return;
+        }
+        int capacity = Math.max(lines + 1, lineLengths.length * 2);
+        lineStarts = Arrays.copyOf(lineStarts, capacity + 1);
+        lineLengths = Arrays.copyOf(lineLengths, capacity);
+        identifiers = Arrays.copyOf(identifiers, capacity);
+        numbers = Arrays.copyOf(numbers, capacity);
+        parentheses = Arrays.copyOf(parentheses, capacity);
+        comparisons = Arrays.copyOf(comparisons, capacity);
+        commas = Arrays.copyOf(commas, capacity);
+        periods = Arrays.copyOf(periods, capacity);
+        keywords = Arrays.copyOf(keywords, capacity);
+        spaces = Arrays.copyOf(spaces, capacity);
+    }
+
+    private void ensureTokenCapacity(int tokens) {
+        if (tokens <= tokenKinds.length) {
+            return;
+        }
+        int capacity = Math.max(tokens, tokenKinds.length * 2);
+        tokenKinds = Arrays.copyOf(tokenKinds, capacity);
+        tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+        tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+        tokenLines = Arrays.copyOf(tokenLines, capacity);
+    }
+
+    /**
+     * Get the profiled code snippet
+     * @return the code
+     */
+    public CharSequence getCode() {
+        return code;
+    }
+
+    /**
+     * Get the number of lines of the profiled snippet
+     * @return the line count
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Get the start offset of every line (only the first getLineCount() entries are valid)
+     * @return the line start offsets
+     */
+    public int[] getLineStarts() {
+        return lineStarts;
+    }
+
+    /**
+     * Get the length of every line (only the first getLineCount() entries are valid)
+     * @return the line lengths
+     */
+    public int[] getLineLengths() {
+        return lineLengths;
+    }
+
+    /**
+     * Get the number of identifiers of every line (only the first getLineCount() entries are valid)
+     * @return the identifiers per line
+     */
+    public int[] getIdentifiers() {
+        return identifiers;
+    }
+
+    /**
+     * Get the number of numeric literals of every line (only the first getLineCount() entries are valid)
+     * @return the numbers per line
+     */
+    public int[] getNumbers() {
+        return numbers;
+    }
+
+    /**
+     * Get the number of parentheses pairs (counted by the opening parenthesis) of every line
+     * (only the first getLineCount() entries are valid)
+     * @return the parentheses per line
+     */
+    public int[] getParentheses() {
+        return parentheses;
+    }
+
+    /**
+     * Get the number of comparison operators of every line (only the first getLineCount() entries are valid)
+     * @return the comparisons per line
+     */
+    public int[] getComparisons() {
+        return comparisons;
+    }
+
+    /**
+     * Get the number of commas of every line (only the first getLineCount() entries are valid)
+     * @return the commas per line
+     */
+    public int[] getCommas() {
+        return commas;
+    }
+
+    /**
+     * Get the number of periods (member access, not decimal points) of every line
+     * (only the first getLineCount() entries are valid)
+     * @return the periods per line
+     */
+    public int[] getPeriods() {
+        return periods;
+    }
+
+    /**
+     * Get the number of keywords of every line (only the first getLineCount() entries are valid)
+     * @return the keywords per line
+     */
+    public int[] getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * Get the number of space and tab characters of every line (only the first getLineCount() entries are valid)
+     * @return the spaces per line
+     */
+    public int[] getSpaces() {
+        return spaces;
+    }
+
+    /**
+     * Get the number of tokens of the profiled snippet (including whitespace and comments)
+     * @return the token count
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Get the kind (see KIND_* constants) of every token (only the first getTokenCount() entries are valid)
+     * @return the token kinds
+     */
+    public int[] getTokenKinds() {
+        return tokenKinds;
+    }
+
+    /**
+     * Get the start offset of every token (only the first getTokenCount() entries are valid)
+     * @return the token start offsets
+     */
+    public int[] getTokenStarts() {
+        return tokenStarts;
+    }
+
+    /**
+     * Get the end offset of every token (only the first getTokenCount() entries are valid)
+     * @return the token end offsets
+     */
+    public int[] getTokenEnds() {
+        return tokenEnds;
+    }
+
+    /**
+     * Get the line every token starts in (only the first getTokenCount() entries are valid)
+     * @return the token lines
+     */
+    public int[] getTokenLines() {
+        return tokenLines;
+    }
+}
@@ -0,0 +1,175 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * In memory cache of values computed for code snippets, bounded by the estimated memory the values retain.
+ *
+ * The cache is keyed by the CodeHash of the code, so the code itself is not retained by the cache.
+ * Every value is weighed (in estimated bytes) when it is added; if the total weight exceeds the maximum weight
+ * the least recently used values are evicted.
+ *
+ * The cache counts hits, misses and evictions, so its size can be chosen based on the hit rate
+ * of long IDE sessions.
+ * @param <V> the type of the cached values
+ */
+public class BoundedCache<V> {
+
+    private final String name;
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+
+    private final LinkedHashMap<Long,WeighedValue<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long retainedBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an empty cache
+     * @param name the name of the cache, used in the statistics
+     * @param maxWeight the maximum total weight of the cached values in bytes
+     * @param weigher estimates the memory retained by a value in bytes
+     */
+    public BoundedCache(String name, long maxWeight, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Get the cached value of a code snippet
+     * @param code the code the value was computed for
+     * @return the cached value or null if the code is not cached
+     */
+    public synchronized V get(String code) {
+        WeighedValue<V> entry = entries.get(CodeHash.of(code));
+        if(entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Add the value of a code snippet to the cache, replacing the previously cached value of the code.
+     * Values that weigh more than the whole cache are not cached.
+     * @param code the code the value was computed for
+     * @param value the value to cache
+     */
+    public synchronized void put(String code, V value) {
+        long key = CodeHash.of(code);
+        long weight = weigher.applyAsLong(value);
+        WeighedValue<V> replaced = entries.remove(key);
+        if(replaced != null) {
+            retainedBytes -= replaced.weight;
+        }
+        if(weight > maxWeight) {
+            return;
+        }
+        entries.put(key, new WeighedValue<>(value, weight));
+        retainedBytes += weight;
+        trimTo(maxWeight);
+    }
+
+    /**
+     * Evict the least recently used values until the total weight does not exceed the given weight
+     * @param weight the maximum total weight after trimming
+     */
+    public synchronized void trimTo(long weight) {
+        Iterator<WeighedValue<V>> iterator = entries.values().iterator();
+        while (retainedBytes > weight && iterator.hasNext()) {
+            retainedBytes -= iterator.next().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Evict all values
+     */
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    /**
+     * Get the number of cached values
+     * @return the number of values
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated number of bytes retained by the cached values
+     * @return the retained bytes
+     */
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * Get the maximum number of bytes the cached values may retain
+     * @return the maximum weight in bytes
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Get the number of successful lookups
+     * @return the number of hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups of code that was not cached
+     * @return the number of misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the share of lookups that were successful
+     * @return the hit rate between 0 and 1, or 0 if there were no lookups yet
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Get the number of values that were evicted because the cache was full or memory was low
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Summarize the statistics of the cache
+     * @return the statistics as string
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d entries, %d/%d bytes, hit rate %.3f (%d hits, %d misses), %d evictions",
+                name, entries.size(), retainedBytes, maxWeight, getHitRate(), hits, misses, evictions);
+    }
+
+    private static class WeighedValue<V> {
+        private final V value;
+        private final long weight;
+
+        private WeighedValue(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
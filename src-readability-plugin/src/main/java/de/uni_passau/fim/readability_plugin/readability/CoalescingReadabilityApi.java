@@ -0,0 +1,276 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Implementation of the ReadabilityApi interface that decorates another api and de-duplicates concurrent requests.
+ *
+ * The same code is often rated at the same moment from different places (e.g. when a file is opened and saved
+ * at the same time, or while the readability tree is built). Instead of rating the code once per caller,
+ * the first caller rates it and all callers asking for the same code while it is rated wait for that rating.
+ *
+ * Requests are identical if the CodeHash of the code, the way the code is wrapped into a class (see
+ * ScalabrinoReadabilityApi.wrapCodeSnippet) and the attachMetrics flag match. A request without metrics
+ * is also served by an identical in-flight request with metrics.
+ * If the caller rating the code is cancelled (its thread got interrupted), the waiting callers are not failed,
+ * but rate the code themselves.
+ * Finished ratings are not kept; caching results is up to the callers.
+ */
+public class CoalescingReadabilityApi implements ReadabilityApi {
+
+    private final ReadabilityApi api;
+    private final ConcurrentHashMap<RequestKey,CompletableFuture<ReadabilityResult>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Decorate a readability api
+     * @param api the api that rates the code
+     */
+    public CoalescingReadabilityApi(ReadabilityApi api) {
+        this.api = api;
+    }
+
+    /**
+     * Rates the readability with the decorated api, or waits for an identical rating that is already in progress.
+     *
+     * @param codeSnippet the code snippet to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElement the java parse tree element linked to the provided source code
+     * @return the Readability Rating Result
+     * @throws ReadabilityProcessException if any issued appear during the code rating process
+     */
+    @Override
+    public ReadabilityResult processCodeSnippet(String codeSnippet, boolean attachMetrics, PsiElement linkedPsiElement) throws ReadabilityProcessException {
+        RequestKey key = new RequestKey(codeSnippet, attachMetrics, linkedPsiElement);
+        while (true) {
+            CompletableFuture<ReadabilityResult> pending = findInFlight(key);
+            if(pending == null) {
+                CompletableFuture<ReadabilityResult> owned = new CompletableFuture<>();
+                pending = inFlight.putIfAbsent(key, owned);
+                if(pending == null) {
+                    return rate(key, owned, codeSnippet, attachMetrics, linkedPsiElement);
+                }
+            }
+            try {
+                return await(pending);
+            }
+            catch (CancellationException ownerCancelled) {
+                //the caller rating the code was cancelled, try again
+            }
+        }
+    }
+
+    /**
+     * Rate a code snippet with the decorated api and provide the result to the callers waiting for it
+     */
+    private ReadabilityResult rate(RequestKey key, CompletableFuture<ReadabilityResult> owned, String codeSnippet,
+                                   boolean attachMetrics, PsiElement linkedPsiElement) throws ReadabilityProcessException {
+        try {
+            ReadabilityResult result = api.processCodeSnippet(codeSnippet, attachMetrics, linkedPsiElement);
+            owned.complete(result);
+            return result;
+        }
+        catch (ReadabilityProcessException | RuntimeException error) {
+            fail(owned, error);
+            throw error;
+        }
+        finally {
+            inFlight.remove(key, owned);
+        }
+    }
+
+    /**
+     * Rates all code snippets that are not already rated by another caller with a single call of the decorated api,
+     * and waits for the ratings of the other snippets.
+     *
+     * @param codeSnippets the code snippets to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElements the java parse tree elements linked to the provided code snippets
+     * @return the Readability Rating Results in the order of the given snippets
+     * @throws ReadabilityProcessException if any issued appear during the code rating process
+     */
+    @Override
+    public List<ReadabilityResult> processCodeSnippets(List<String> codeSnippets, boolean attachMetrics,
+                                                       List<PsiElement> linkedPsiElements) throws ReadabilityProcessException {
+        List<CompletableFuture<ReadabilityResult>> futures = new ArrayList<>();
+        List<RequestKey> ownedKeys = new ArrayList<>();
+        List<CompletableFuture<ReadabilityResult>> ownedFutures = new ArrayList<>();
+        List<String> ownedSnippets = new ArrayList<>();
+        List<PsiElement> ownedElements = new ArrayList<>();
+
+        for (int i = 0; i < codeSnippets.size(); i++) {
+            RequestKey key = new RequestKey(codeSnippets.get(i), attachMetrics, linkedPsiElements.get(i));
+            CompletableFuture<ReadabilityResult> pending = findInFlight(key);
+            if(pending == null) {
+                CompletableFuture<ReadabilityResult> owned = new CompletableFuture<>();
+                pending = inFlight.putIfAbsent(key, owned);
+                if(pending == null) {
+                    pending = owned;
+                    ownedKeys.add(key);
+                    ownedFutures.add(owned);
+                    ownedSnippets.add(codeSnippets.get(i));
+                    ownedElements.add(linkedPsiElements.get(i));
+                }
+            }
+            futures.add(pending);
+        }
+
+        if(!ownedSnippets.isEmpty()) {
+            try {
+                List<ReadabilityResult> results = api.processCodeSnippets(ownedSnippets, attachMetrics, ownedElements);
+                for (int i = 0; i < ownedFutures.size(); i++) {
+                    ownedFutures.get(i).complete(results.get(i));
+                }
+            }
+            catch (ReadabilityProcessException | RuntimeException error) {
+                for (CompletableFuture<ReadabilityResult> owned : ownedFutures) {
+                    fail(owned, error);
+                }
+                throw error;
+            }
+            finally {
+                for (int i = 0; i < ownedKeys.size(); i++) {
+                    inFlight.remove(ownedKeys.get(i), ownedFutures.get(i));
+                }
+            }
+        }
+
+        List<ReadabilityResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(await(futures.get(i)));
+            }
+            catch (CancellationException ownerCancelled) {
+                //the caller rating the snippet was cancelled, rate it on its own
+                results.add(processCodeSnippet(codeSnippets.get(i), attachMetrics, linkedPsiElements.get(i)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Get the number of snippets the decorated api can rate at the same time
+     * @return the maximum number of concurrent ratings
+     */
+    @Override
+    public int getParallelism() {
+        return api.getParallelism();
+    }
+
+    /**
+     * Get the number of ratings currently in progress
+     * @return the number of in-flight requests
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Find an in-flight request that provides the result of the given request
+     */
+    private CompletableFuture<ReadabilityResult> findInFlight(RequestKey key) {
+        if(!key.attachMetrics) {
+            CompletableFuture<ReadabilityResult> withMetrics = inFlight.get(key.withMetrics());
+            if(withMetrics != null) {
+                return withMetrics;
+            }
+        }
+        return inFlight.get(key);
+    }
+
+    /**
+     * Provide the failure of a rating to the waiting callers.
+     * If the rating failed because the rating caller got cancelled, the waiting callers are told to rate on their own.
+     */
+    private static void fail(CompletableFuture<ReadabilityResult> owned, Exception error) {
+        if(Thread.currentThread().isInterrupted()) {
+            owned.cancel(false);
+        }
+        else {
+            owned.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Wait for an in-flight rating
+     * @param future the future of the rating
+     * @return the rating result
+     * @throws ReadabilityProcessException if the rating failed or the thread got interrupted while waiting
+     * @throws CancellationException if the caller rating the code was cancelled
+     */
+    private static ReadabilityResult await(CompletableFuture<ReadabilityResult> future) throws ReadabilityProcessException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new ReadabilityProcessException("Got interrupted while waiting for an identical rating", error, null);
+        }
+        catch (ExecutionException error) {
+            if(error.getCause() instanceof ReadabilityProcessException) {
+                throw (ReadabilityProcessException) error.getCause();
+            }
+            throw new ReadabilityProcessException("Identical rating failed", (Exception) error.getCause(), null);
+        }
+    }
+
+    /**
+     * Identifies a rating request
+     */
+    private static class RequestKey {
+        private static final int WRAP_NONE = 0;
+        private static final int WRAP_CLASS = 1;
+        private static final int WRAP_CLASS_AND_METHOD = 2;
+
+        private final long codeHash;
+        private final int codeLength;
+        private final int wrapKind;
+        private final boolean attachMetrics;
+
+        private RequestKey(String codeSnippet, boolean attachMetrics, PsiElement linkedPsiElement) {
+            this(CodeHash.of(codeSnippet), codeSnippet.length(), wrapKind(linkedPsiElement), attachMetrics);
+        }
+
+        private RequestKey(long codeHash, int codeLength, int wrapKind, boolean attachMetrics) {
+            this.codeHash = codeHash;
+            this.codeLength = codeLength;
+            this.wrapKind = wrapKind;
+            this.attachMetrics = attachMetrics;
+        }
+
+        private RequestKey withMetrics() {
+            return new RequestKey(codeHash, codeLength, wrapKind, true);
+        }
+
+        private static int wrapKind(PsiElement linkedPsiElement) {
+            if(linkedPsiElement instanceof PsiJavaFile) {
+                return WRAP_NONE;
+            }
+            return linkedPsiElement instanceof PsiMethod ? WRAP_CLASS : WRAP_CLASS_AND_METHOD;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof RequestKey)) {
+                return false;
+            }
+            RequestKey otherKey = (RequestKey) other;
+            return codeHash == otherKey.codeHash && codeLength == otherKey.codeLength
+                    && wrapKind == otherKey.wrapKind && attachMetrics == otherKey.attachMetrics;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(codeHash, codeLength, wrapKind, attachMetrics);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+/**
+ * 64 bit hash of source code, used to address results by the code they were computed for
+ * instead of keeping the (possibly very long) code itself as key.
+ */
+public final class CodeHash {
+
+    private static final long DEFAULT_SEED = 0xcbf29ce484222325L;
+
+    private CodeHash() {
+
+    }
+
+    /**
+     * Hash the given code
+     * @param code the code to hash
+     * @return the 64 bit hash of the code
+     */
+    public static long of(CharSequence code) {
+        return of(code, DEFAULT_SEED);
+    }
+
+    /**
+     * Hash the given code with a seed, so the same code results in different hashes for different seeds
+     * (e.g. different model versions).
+     * The hash is FNV-1a with a final avalanche step, so the low bits depend on all characters.
+     * @param code the code to hash
+     * @param seed the seed of the hash
+     * @return the 64 bit hash of the code
+     */
+    public static long of(CharSequence code, long seed) {
+        long hash = seed;
+        for (int i = 0; i < code.length(); i++) {
+            hash ^= code.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,114 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import com.intellij.psi.PsiElement;
+import de.uni_passau.fim.readability_plugin.metrics.NativeMetricsExtractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the ReadabilityApi interface that decorates the api of the Scalabrino Model.
+ *
+ * The readability score is still provided by the model, but the code metrics that can be computed within the
+ * plugin (see NativeMetricsExtractor) are not taken from the RSE.jar anymore. They are computed on the same
+ * wrapped code the model rates and attached to (or overwrite the metrics of) the result of the model.
+ *
+ * Only if the native metrics reproduce all metrics the readability hints are based on exactly, the decorated api is
+ * not asked to extract metrics at all, which saves the metric extraction run of the RSE.jar (the details view then
+ * only lists the native metrics). Otherwise the model metrics are extracted and only the exact native metrics
+ * overwrite them, so the hints keep working on the values their coefficients were fitted on. The native extractors
+ * that do not compute any exact metric are not run then.
+ */
+public class NativeMetricsReadabilityApi implements ReadabilityApi {
+
+    private final ReadabilityApi modelApi;
+    private final NativeMetricsExtractor extractor;
+    private final boolean modelMetricsRequired;
+
+    /**
+     * Decorate an api of the Scalabrino Model
+     * @param modelApi the api providing the readability score
+     */
+    public NativeMetricsReadabilityApi(ReadabilityApi modelApi) {
+        this.modelApi = modelApi;
+        this.extractor = NativeMetricsExtractor.getInstance();
+        this.modelMetricsRequired = !extractor.reproduces(ReadabilityImprover.getUsedMetrics());
+    }
+
+    /**
+     * Rates the readability with the decorated api and attaches the natively computed metrics.
+     *
+     * @param codeSnippet the code snippet to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElement the java parse tree element linked to the provided source code
+     * @return the Readability Rating Result
+     * @throws ReadabilityProcessException if any issued appear during the code rating process
+     */
+    @Override
+    public ReadabilityResult processCodeSnippet(String codeSnippet, boolean attachMetrics, PsiElement linkedPsiElement) throws ReadabilityProcessException {
+        ReadabilityResult result = modelApi.processCodeSnippet(codeSnippet,
+                attachMetrics && modelMetricsRequired, linkedPsiElement);
+        if(attachMetrics && nativeMetricsUsed()) {
+            attachNativeMetrics(result, codeSnippet, linkedPsiElement);
+        }
+        return result;
+    }
+
+    /**
+     * Rates all code snippets with the decorated api and attaches the natively computed metrics to every result.
+     *
+     * @param codeSnippets the code snippets to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElements the java parse tree elements linked to the provided code snippets
+     * @return the Readability Rating Results in the order of the given snippets
+     * @throws ReadabilityProcessException if any issued appear during the code rating process
+     */
+    @Override
+    public List<ReadabilityResult> processCodeSnippets(List<String> codeSnippets, boolean attachMetrics,
+                                                       List<PsiElement> linkedPsiElements) throws ReadabilityProcessException {
+        List<ReadabilityResult> results = modelApi.processCodeSnippets(codeSnippets,
+                attachMetrics && modelMetricsRequired, linkedPsiElements);
+        if(attachMetrics && nativeMetricsUsed()) {
+            List<String> wrappedClassSnippets = new ArrayList<>();
+            for (int i = 0; i < codeSnippets.size(); i++) {
+                wrappedClassSnippets.add(ScalabrinoReadabilityApi.wrapCodeSnippet(codeSnippets.get(i), linkedPsiElements.get(i)));
+            }
+            double[] values = extractor.extractAll(wrappedClassSnippets, modelMetricsRequired);
+            for (int i = 0; i < results.size(); i++) {
+                Map<String,Double> metrics = NativeMetricsExtractor.toMap(values, i * NativeMetricsExtractor.METRIC_COUNT,
+                        modelMetricsRequired);
+                ReadabilityResult.attachMetrics(results.get(i), metrics);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The native metrics are computed by the calling thread, so the parallelism is the one of the model api
+     * @return the maximum number of concurrent ratings of the decorated api
+     */
+    @Override
+    public int getParallelism() {
+        return modelApi.getParallelism();
+    }
+
+    /**
+     * Check whether any native metric is attached to the results
+     * @return false if the model metrics are extracted and no native metric is exact
+     */
+    private boolean nativeMetricsUsed() {
+        return !modelMetricsRequired || extractor.hasExactMetrics();
+    }
+
+    /**
+     * Compute the native metrics of a code snippet and attach them to its readability result
+     * @param result the readability result of the snippet
+     * @param codeSnippet the rated code snippet
+     * @param linkedPsiElement the java parse tree element linked to the snippet
+     */
+    private void attachNativeMetrics(ReadabilityResult result, String codeSnippet, PsiElement linkedPsiElement) {
+        String wrappedClassSnippet = ScalabrinoReadabilityApi.wrapCodeSnippet(codeSnippet, linkedPsiElement);
+        ReadabilityResult.attachMetrics(result, extractor.extract(wrappedClassSnippet, modelMetricsRequired));
+    }
+}
@@ -0,0 +1,154 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.psi.PsiElement;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of the ReadabilityApi interface that rates code with the Scalabrino Model from 2018
+ * using a pool of long living RSE worker processes.
+ *
+ * The model does not run within the IDE, so it can not clash with the class path, the heap or the stdout of the
+ * IDE. Each worker process runs in the model directory, where the model expects its classifier.
+ * In contrast to the ScalabrinoReadabilityApi no new JVM must be started for every code snippet.
+ * The code snippets are sent to the workers over stdin, so no snippet files must be written by the plugin.
+ *
+ * The pool size is an application setting, as all projects share the pool. It can be defined with the
+ * "readability.rse.workers" system property (e.g. in the vmoptions of the IDE), otherwise 2 workers are used.
+ * The worker processes are shut down together with the application.
+ */
+public class PooledReadabilityApi implements ReadabilityApi {
+
+    public static final String POOL_SIZE_PROPERTY = "readability.rse.workers";
+    private static final int DEFAULT_POOL_SIZE = 2;
+
+    private static PooledReadabilityApi instance;
+
+    private final RseWorkerPool workerPool;
+
+    /**
+     * PooledReadabilityApi is implemented as singleton, as all projects should share one pool of workers.
+     * @return the singleton instance of the PooledReadabilityApi
+     */
+    public static synchronized PooledReadabilityApi getInstance() {
+        if(instance == null) {
+            int poolSize = Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+            instance = new PooledReadabilityApi(poolSize > 0 ? poolSize : DEFAULT_POOL_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructs a new PooledReadabilityApi.
+     * The worker processes are not started before the first code snippet must be rated.
+     * @param poolSize the number of worker processes
+     */
+    private PooledReadabilityApi(int poolSize) {
+        ScalabrinoReadabilityApi processApi = ScalabrinoReadabilityApi.getInstance();
+        File rseJar = new File(processApi.getRseJarPath(), "RSE.jar");
+        workerPool = new RseWorkerPool(rseJar, processApi.getTempDir(), poolSize);
+        Disposer.register(ApplicationManager.getApplication(), workerPool::close);
+    }
+
+    /**
+     * Rates the readability by sending the code snippet to one of the worker processes and parsing the
+     * model output sent back by the worker.
+     *
+     * @param codeSnippet the code snippet to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElement the java parse tree element linked to the provided source code
+     * @return the Readability Rating Result
+     * @throws ReadabilityProcessException if any issued appear during the code rating process
+     */
+    @Override
+    public ReadabilityResult processCodeSnippet(String codeSnippet, boolean attachMetrics, PsiElement linkedPsiElement) throws ReadabilityProcessException {
+        String wrappedClassSnippet = ScalabrinoReadabilityApi.wrapCodeSnippet(codeSnippet, linkedPsiElement);
+
+        RseWorkerPool.WorkerResponse response;
+        try {
+            response = workerPool.rate(wrappedClassSnippet, attachMetrics);
+        }
+        catch (IOException error) {
+            throw new ReadabilityProcessException("Failed to rate snippet with rse worker", error, null);
+        }
+        catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new ReadabilityProcessException("Got interrupted while waiting for rse worker", error, null);
+        }
+        return parseResponse(response, attachMetrics);
+    }
+
+    /**
+     * Rates all code snippets by spreading them over the worker processes of the pool.
+     *
+     * @param codeSnippets the code snippets to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElements the java parse tree elements linked to the provided code snippets
+     * @return the Readability Rating Results in the order of the given snippets
+     * @throws ReadabilityProcessException if any issued appear during the code rating process
+     */
+    @Override
+    public List<ReadabilityResult> processCodeSnippets(List<String> codeSnippets, boolean attachMetrics,
+                                                       List<PsiElement> linkedPsiElements) throws ReadabilityProcessException {
+        List<String> wrappedClassSnippets = new ArrayList<>();
+        for (int i = 0; i < codeSnippets.size(); i++) {
+            wrappedClassSnippets.add(ScalabrinoReadabilityApi.wrapCodeSnippet(codeSnippets.get(i), linkedPsiElements.get(i)));
+        }
+
+        List<RseWorkerPool.WorkerResponse> responses;
+        try {
+            responses = workerPool.rateAll(wrappedClassSnippets, attachMetrics);
+        }
+        catch (IOException error) {
+            throw new ReadabilityProcessException("Failed to rate snippets with rse workers", error, null);
+        }
+        catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new ReadabilityProcessException("Got interrupted while waiting for rse workers", error, null);
+        }
+
+        List<ReadabilityResult> results = new ArrayList<>();
+        for(RseWorkerPool.WorkerResponse response : responses) {
+            results.add(parseResponse(response, attachMetrics));
+        }
+        return results;
+    }
+
+    /**
+     * Every worker rates one snippet at a time
+     * @return the number of worker processes
+     */
+    @Override
+    public int getParallelism() {
+        return workerPool.size();
+    }
+
+    /**
+     * Create the readability result from the model output sent back by a worker
+     * @param response the response of the worker
+     * @param attachMetrics whether metrics were requested
+     * @return the parsed readability result
+     * @throws ReadabilityProcessException if the worker failed to rate the snippet
+     */
+    private ReadabilityResult parseResponse(RseWorkerPool.WorkerResponse response, boolean attachMetrics) throws ReadabilityProcessException {
+        if(!response.isSuccessful()) {
+            throw new ReadabilityProcessException("rse worker failed: " + response.getReadabilityStdOut(), null, null);
+        }
+
+        List<ReadabilityResult> resultList = ReadabilityResult.fromStdOut(response.getReadabilityStdOut());
+        if(resultList.isEmpty()) {
+            throw new ReadabilityProcessException("rse worker returned no result", null, null);
+        }
+
+        ReadabilityResult result = resultList.get(0);
+        if(attachMetrics) {
+            ReadabilityResult.attachMetrics(result, response.getMetricsStdOut());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,288 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the command line processes of the model and collects their output.
+ *
+ * Both output streams of a process are drained concurrently, so a process writing a lot to one stream can not block
+ * on a full pipe while the other stream is read. The output is collected in bounded buffers: everything beyond the
+ * limit is still read (to keep the process running) but discarded, and the output is marked as truncated.
+ *
+ * Every call has a deadline. If the process does not terminate in time it is killed (including the processes it
+ * started itself, like the JVM started by a shell command) and the output is marked as timed out.
+ */
+public class ProcessRunner {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final long DRAIN_AFTER_KILL_MILLIS = 5_000;
+
+    private static final ExecutorService drainExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread drainThread = new Thread(runnable, "readability-process-drain");
+        drainThread.setDaemon(true);
+        return drainThread;
+    });
+
+    private final int maxOutputBytes;
+
+    private final AtomicLong totalCalls = new AtomicLong();
+    private final AtomicLong totalBytesRead = new AtomicLong();
+    private final AtomicLong totalWallTimeMillis = new AtomicLong();
+
+    /**
+     * Create a new process runner
+     * @param maxOutputBytes the maximum number of bytes kept per output stream and call
+     */
+    public ProcessRunner(int maxOutputBytes) {
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    /**
+     * Start a process and wait for it to terminate, while collecting stdout and stderr.
+     *
+     * @param command the command to start
+     * @param timeoutMillis the deadline of the call, the process is killed if it is still running afterwards
+     * @return the collected output of the process
+     * @throws IOException if the process could not be started or its output could not be read
+     * @throws InterruptedException if the thread got interrupted while waiting, the process is killed in that case
+     */
+    public ProcessOutput run(ProcessBuilder command, long timeoutMillis) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        Process process = command.start();
+        process.getOutputStream().close();
+
+        Future<BoundedBuffer> stdoutDrain = drainExecutor.submit(() -> drain(process.getInputStream()));
+        Future<BoundedBuffer> stderrDrain = drainExecutor.submit(() -> drain(process.getErrorStream()));
+
+        boolean timedOut;
+        try {
+            timedOut = !process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException error) {
+            kill(process);
+            throw error;
+        }
+        if (timedOut) {
+            kill(process);
+        }
+
+        BoundedBuffer stdout = awaitDrain(stdoutDrain);
+        BoundedBuffer stderr = awaitDrain(stderrDrain);
+        long wallTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        ProcessOutput output = new ProcessOutput(timedOut ? -1 : process.exitValue(), timedOut,
+                stdout, stderr, wallTimeMillis);
+
+        totalCalls.incrementAndGet();
+        totalBytesRead.addAndGet(output.getBytesRead());
+        totalWallTimeMillis.addAndGet(wallTimeMillis);
+        return output;
+    }
+
+    /**
+     * Get the number of processes run so far
+     * @return the number of calls
+     */
+    public long getTotalCalls() {
+        return totalCalls.get();
+    }
+
+    /**
+     * Get the number of bytes read from all processes run so far (including discarded bytes)
+     * @return the number of bytes read
+     */
+    public long getTotalBytesRead() {
+        return totalBytesRead.get();
+    }
+
+    /**
+     * Get the summed up wall time of all processes run so far
+     * @return the wall time in milliseconds
+     */
+    public long getTotalWallTimeMillis() {
+        return totalWallTimeMillis.get();
+    }
+
+    /**
+     * Read an output stream of a process until it is closed
+     * @param input the stream to read
+     * @return the buffer holding the (possibly truncated) content of the stream
+     * @throws IOException if the stream could not be read
+     */
+    private BoundedBuffer drain(InputStream input) throws IOException {
+        BoundedBuffer buffer = new BoundedBuffer(maxOutputBytes);
+        byte[] chunk = new byte[READ_BUFFER_SIZE];
+        try (input) {
+            int read;
+            while ((read = input.read(chunk)) != -1) {
+                buffer.write(chunk, read);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Wait for a drain task to finish.
+     * After the process terminated the streams are closed soon, so the wait is bounded as well.
+     * @param drain the drain task
+     * @return the buffer filled by the task
+     * @throws IOException if the stream could not be read
+     * @throws InterruptedException if the thread got interrupted while waiting
+     */
+    private BoundedBuffer awaitDrain(Future<BoundedBuffer> drain) throws IOException, InterruptedException {
+        try {
+            return drain.get(DRAIN_AFTER_KILL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException error) {
+            throw new IOException("Failed to read process output", error.getCause());
+        }
+        catch (TimeoutException error) {
+            drain.cancel(true);
+            throw new IOException("Process output was not closed after the process terminated", error);
+        }
+    }
+
+    /**
+     * Kill a process and all processes started by it.
+     * Commands run through a shell start the actual JVM as child process, which would otherwise keep running
+     * and keep the output pipes open.
+     * @param process the process to kill
+     */
+    private static void kill(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /**
+     * Byte buffer that keeps at most a given number of bytes and counts everything written to it
+     */
+    private static class BoundedBuffer {
+        private final int capacity;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private long bytesRead;
+
+        private BoundedBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void write(byte[] chunk, int length) {
+            bytesRead += length;
+            int kept = Math.min(length, capacity - content.size());
+            if (kept > 0) {
+                content.write(chunk, 0, kept);
+            }
+        }
+
+        private boolean isTruncated() {
+            return bytesRead > content.size();
+        }
+
+        /**
+         * Decode the kept content the same way the output was read before: with the platform charset and
+         * unix line endings.
+         */
+        private String text() {
+            return content.toString(Charset.defaultCharset()).replace("\r\n", "\n");
+        }
+    }
+
+    /**
+     * The result of a process run by the ProcessRunner
+     */
+    public static class ProcessOutput {
+        private final int exitCode;
+        private final boolean timedOut;
+        private final String stdout;
+        private final String stderr;
+        private final boolean stdoutTruncated;
+        private final boolean stderrTruncated;
+        private final long bytesRead;
+        private final long wallTimeMillis;
+
+        private ProcessOutput(int exitCode, boolean timedOut, BoundedBuffer stdout, BoundedBuffer stderr,
+                              long wallTimeMillis) {
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.stdout = stdout.text();
+            this.stderr = stderr.text();
+            this.stdoutTruncated = stdout.isTruncated();
+            this.stderrTruncated = stderr.isTruncated();
+            this.bytesRead = stdout.bytesRead + stderr.bytesRead;
+            this.wallTimeMillis = wallTimeMillis;
+        }
+
+        /**
+         * Get the exit code of the process
+         * @return the exit code or -1 if the process was killed after the deadline
+         */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * Returns true if the process did not terminate before the deadline and was killed
+         * @return whether the process timed out or not
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * Get the (possibly truncated) stdout of the process
+         * @return the stdout
+         */
+        public String getStdout() {
+            return stdout;
+        }
+
+        /**
+         * Get the (possibly truncated) stderr of the process
+         * @return the stderr
+         */
+        public String getStderr() {
+            return stderr;
+        }
+
+        /**
+         * Returns true if the stdout exceeded the output limit
+         * @return whether stdout was truncated or not
+         */
+        public boolean isStdoutTruncated() {
+            return stdoutTruncated;
+        }
+
+        /**
+         * Returns true if the stderr exceeded the output limit
+         * @return whether stderr was truncated or not
+         */
+        public boolean isStderrTruncated() {
+            return stderrTruncated;
+        }
+
+        /**
+         * Get the number of bytes read from both output streams (including discarded bytes)
+         * @return the number of bytes read
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Get the time between starting the process and collecting all of its output
+         * @return the wall time in milliseconds
+         */
+        public long getWallTimeMillis() {
+            return wallTimeMillis;
+        }
+    }
+}
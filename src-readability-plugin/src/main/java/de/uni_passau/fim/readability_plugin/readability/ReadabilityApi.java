@@ -2,6 +2,9 @@ package de.uni_passau.fim.readability_plugin.readability;
 
 import com.intellij.psi.PsiElement;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Defines a method that every readability api should implement.
  * Different readability api's are required to support different readability models
@@ -27,4 +30,35 @@ public interface ReadabilityApi {
     public ReadabilityResult processCodeSnippet(String codeSnippet, boolean attachMetrics,
                                                 PsiElement linkedPsiElement) throws ReadabilityProcessException;
 
+    /**
+     * Process multiple source code snippets (for example all methods of a java file) at once.
+     * The snippet at a given index is linked to the PsiElement at the same index.
+     *
+     * By default, the snippets are rated one after another. Apis that can rate multiple snippets in a single model
+     * call should override this method.
+     *
+     * @param codeSnippets the code snippets to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElements the java parse tree elements linked to the provided code snippets
+     * @return the Readability Rating Results in the order of the given snippets
+     * @throws ReadabilityProcessException if an error appeared during the rating process
+     */
+    public default List<ReadabilityResult> processCodeSnippets(List<String> codeSnippets, boolean attachMetrics,
+                                                               List<PsiElement> linkedPsiElements) throws ReadabilityProcessException {
+        List<ReadabilityResult> results = new ArrayList<>();
+        for (int i = 0; i < codeSnippets.size(); i++) {
+            results.add(processCodeSnippet(codeSnippets.get(i), attachMetrics, linkedPsiElements.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * Get the number of code snippets (or batches) the api can rate at the same time.
+     * Rating with more threads does not rate faster, the additional threads only wait for the api.
+     * @return the maximum number of concurrent ratings
+     */
+    public default int getParallelism() {
+        return Integer.MAX_VALUE;
+    }
+
 }
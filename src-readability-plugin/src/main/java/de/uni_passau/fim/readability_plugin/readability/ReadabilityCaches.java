@@ -0,0 +1,96 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.LowMemoryWatcher;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToLongFunction;
+
+/**
+ * Registry of all in memory caches of the plugin.
+ *
+ * The caches are shared by all projects. If the IDE runs low on memory all caches are cleared,
+ * the persisted results of the ScoreStore are not affected by this.
+ */
+public class ReadabilityCaches {
+
+    private static final long RESULT_CACHE_BYTES = 32L << 20;
+
+    private static ReadabilityCaches instance;
+
+    private final List<BoundedCache<?>> caches = new CopyOnWriteArrayList<>();
+    private final BoundedCache<ReadabilityResult> resultCache;
+
+    /**
+     * ReadabilityCaches is implemented as singleton, as the caches should be shared by all projects.
+     * @return the singleton instance of the ReadabilityCaches
+     */
+    public static synchronized ReadabilityCaches getInstance() {
+        if(instance == null) {
+            instance = new ReadabilityCaches();
+        }
+        return instance;
+    }
+
+    private ReadabilityCaches() {
+        resultCache = createCache("readability results", RESULT_CACHE_BYTES, ReadabilityCaches::weighResult);
+        LowMemoryWatcher.register(this::clearAll, ApplicationManager.getApplication());
+    }
+
+    /**
+     * Create a new cache that is cleared together with all other caches if memory is low
+     * @param name the name of the cache
+     * @param maxWeight the maximum number of bytes the cached values may retain
+     * @param weigher estimates the memory retained by a value in bytes
+     * @return the new cache
+     * @param <V> the type of the cached values
+     */
+    public <V> BoundedCache<V> createCache(String name, long maxWeight, ToLongFunction<V> weigher) {
+        BoundedCache<V> cache = new BoundedCache<>(name, maxWeight, weigher);
+        caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Get the cache of the readability results of rated methods
+     * @return the result cache
+     */
+    public BoundedCache<ReadabilityResult> getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Get all registered caches, e.g. to inspect their statistics
+     * @return the caches
+     */
+    public List<BoundedCache<?>> getCaches() {
+        return List.copyOf(caches);
+    }
+
+    /**
+     * Clear all registered caches
+     */
+    public void clearAll() {
+        for (BoundedCache<?> cache : caches) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Estimate the memory retained by a readability result: the object itself, its file name
+     * and one hash map entry (with boxed value) per metric
+     */
+    private static long weighResult(ReadabilityResult result) {
+        long weight = 48;
+        if(result.getAnalyzedFile() != null) {
+            weight += 40 + 2L * result.getAnalyzedFile().length();
+        }
+        Map<String,Double> metrics = result.getMetrics();
+        if(metrics != null) {
+            weight += 64 + metrics.size() * 72L;
+        }
+        return weight;
+    }
+}
@@ -107,13 +107,21 @@ public class ReadabilityImprover {
         return improved;
     }
 
+    /**
+     * Get the names of all metrics the readability hints are based on
+     * @return the metric names
+     */
+    public static Set<String> getUsedMetrics() {
+        return getCoefficients().keySet();
+    }
+
     /**
      * Provide the coefficient values used for the logical regression.
      *
      * TODO: those coefficients should be configurable in a external config file
      * @return the coefficients for the different metrics
      */
-    private Map<String, Double> getCoefficients() {
+    private static Map<String, Double> getCoefficients() {
         Map<String, Double> result = new HashMap<>();
         result.put("New Commented words MAX", 0.1106);
         result.put("New Synonym commented words MAX", -0.0625);
@@ -48,6 +48,26 @@ public class ReadabilityProcessException extends Exception {
         return causedBy;
     }
 
+    /**
+     * Check whether the rating failed because the rating thread got interrupted (e.g. because its analysis was
+     * cancelled), instead of the model failing to rate the code.
+     * @return true if the rating was cancelled
+     */
+    public boolean isCancellation() {
+        if(Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        Throwable cause = causedBy;
+        while (cause != null) {
+            if(cause instanceof InterruptedException) {
+                return true;
+            }
+            cause = cause instanceof ReadabilityProcessException
+                    ? ((ReadabilityProcessException) cause).causedBy : cause.getCause();
+        }
+        return false;
+    }
+
     /**
      * Get the file path of the java file that included the code that could not be rated.
      * @return the file path
@@ -0,0 +1,260 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Summary of the readability of many methods (e.g. of a whole project), built incrementally while the methods
+ * are rated.
+ *
+ * The report needs constant memory no matter how many methods are added: it keeps the count, mean and variance
+ * (Welford's online algorithm), the minimum and maximum, a histogram with a fixed number of buckets and only the
+ * least readable methods. The rated methods themselves are not retained.
+ */
+public class ReadabilityReport {
+
+    public static final int HISTOGRAM_BUCKETS = 10;
+    public static final int DEFAULT_WORST_METHODS = 25;
+
+    private final int worstMethodLimit;
+    private final PriorityQueue<RatedMethod> worstMethods;
+    private final long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+    private long methodCount;
+    private long failedMethodCount;
+    private long fileCount;
+    private long failedFileCount;
+    private double mean;
+    private double squaredDeviations;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * Create an empty report keeping the DEFAULT_WORST_METHODS least readable methods
+     */
+    public ReadabilityReport() {
+        this(DEFAULT_WORST_METHODS);
+    }
+
+    /**
+     * Create an empty report
+     * @param worstMethodLimit the number of least readable methods to keep
+     */
+    public ReadabilityReport(int worstMethodLimit) {
+        this.worstMethodLimit = worstMethodLimit;
+        //the best of the kept methods is on top, so it can be replaced by a less readable one
+        worstMethods = new PriorityQueue<>(Comparator.comparingDouble(RatedMethod::getReadability).reversed());
+    }
+
+    /**
+     * Add the readability of a method
+     * @param file the path of the file containing the method
+     * @param method the name of the method
+     * @param line the one indexed start line of the method
+     * @param readability the readability of the method between 0 and 1
+     */
+    public synchronized void addMethod(String file, String method, int line, double readability) {
+        methodCount++;
+        double delta = readability - mean;
+        mean += delta / methodCount;
+        squaredDeviations += delta * (readability - mean);
+        min = methodCount == 1 ? readability : Math.min(min, readability);
+        max = methodCount == 1 ? readability : Math.max(max, readability);
+
+        int bucket = (int) (readability * HISTOGRAM_BUCKETS);
+        histogram[Math.max(0, Math.min(HISTOGRAM_BUCKETS - 1, bucket))]++;
+
+        if(worstMethods.size() < worstMethodLimit) {
+            worstMethods.add(new RatedMethod(file, method, line, readability));
+        }
+        else if(worstMethodLimit > 0 && readability < worstMethods.peek().getReadability()) {
+            worstMethods.poll();
+            worstMethods.add(new RatedMethod(file, method, line, readability));
+        }
+    }
+
+    /**
+     * Count a method that could not be rated
+     */
+    public synchronized void addFailedMethod() {
+        failedMethodCount++;
+    }
+
+    /**
+     * Count a file whose methods were added to the report
+     */
+    public synchronized void addFile() {
+        fileCount++;
+    }
+
+    /**
+     * Count a file that could not be parsed
+     */
+    public synchronized void addFailedFile() {
+        failedFileCount++;
+    }
+
+    /**
+     * Get the number of rated methods
+     * @return the number of methods
+     */
+    public synchronized long getMethodCount() {
+        return methodCount;
+    }
+
+    /**
+     * Get the number of methods that could not be rated
+     * @return the number of failed methods
+     */
+    public synchronized long getFailedMethodCount() {
+        return failedMethodCount;
+    }
+
+    /**
+     * Get the number of analysed files
+     * @return the number of files
+     */
+    public synchronized long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Get the number of files that could not be parsed
+     * @return the number of failed files
+     */
+    public synchronized long getFailedFileCount() {
+        return failedFileCount;
+    }
+
+    /**
+     * Get the mean readability of all rated methods
+     * @return the mean or NaN if no method was rated
+     */
+    public synchronized double getMean() {
+        return methodCount == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Get the standard deviation of the readability of all rated methods
+     * @return the standard deviation or NaN if no method was rated
+     */
+    public synchronized double getStandardDeviation() {
+        return methodCount == 0 ? Double.NaN : Math.sqrt(squaredDeviations / methodCount);
+    }
+
+    /**
+     * Get the lowest readability of all rated methods
+     * @return the minimum or NaN if no method was rated
+     */
+    public synchronized double getMin() {
+        return min;
+    }
+
+    /**
+     * Get the highest readability of all rated methods
+     * @return the maximum or NaN if no method was rated
+     */
+    public synchronized double getMax() {
+        return max;
+    }
+
+    /**
+     * Get the number of methods per readability range, bucket i counts the methods rated between i/10 and (i+1)/10
+     * @return a copy of the histogram
+     */
+    public synchronized long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * Get the least readable methods
+     * @return the kept methods, least readable first
+     */
+    public synchronized List<RatedMethod> getWorstMethods() {
+        List<RatedMethod> methods = new ArrayList<>(worstMethods);
+        methods.sort(Comparator.comparingDouble(RatedMethod::getReadability));
+        return methods;
+    }
+
+    /**
+     * Summarize the report as text
+     * @return the report text
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Readability of %d methods in %d files", methodCount, fileCount));
+        if(failedMethodCount > 0 || failedFileCount > 0) {
+            report.append(String.format(" (%d methods and %d files could not be rated)", failedMethodCount, failedFileCount));
+        }
+        report.append('\n');
+        if(methodCount == 0) {
+            return report.toString();
+        }
+
+        report.append(String.format("mean %.3f, standard deviation %.3f, min %.3f, max %.3f%n%n",
+                getMean(), getStandardDeviation(), min, max));
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            report.append(String.format("%.1f - %.1f: %d%n", (double) i / HISTOGRAM_BUCKETS,
+                    (double) (i + 1) / HISTOGRAM_BUCKETS, histogram[i]));
+        }
+
+        report.append(String.format("%nLeast readable methods:%n"));
+        for (RatedMethod method : getWorstMethods()) {
+            report.append(String.format("%.3f %s (%s:%d)%n", method.getReadability(), method.getMethod(),
+                    method.getFile(), method.getLine()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * A method kept by the report
+     */
+    public static class RatedMethod {
+        private final String file;
+        private final String method;
+        private final int line;
+        private final double readability;
+
+        private RatedMethod(String file, String method, int line, double readability) {
+            this.file = file;
+            this.method = method;
+            this.line = line;
+            this.readability = readability;
+        }
+
+        /**
+         * Get the path of the file containing the method
+         * @return the file path
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Get the name of the method
+         * @return the method name
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Get the start line of the method
+         * @return the one indexed line
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Get the readability of the method
+         * @return the readability between 0 and 1
+         */
+        public double getReadability() {
+            return readability;
+        }
+    }
+}
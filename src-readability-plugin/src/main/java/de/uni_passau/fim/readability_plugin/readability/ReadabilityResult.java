@@ -84,6 +84,32 @@ public class ReadabilityResult {
         result.metrics = metrics;
     }
 
+    /**
+     * Append metric values that were not extracted by the model process (e.g. computed within the plugin)
+     * to a ReadabilityResult object. Metrics that are already attached to the result are overwritten.
+     *
+     * @param result the readability results the metrics should be appended to
+     * @param metrics the metric values by metric name
+     */
+    public static void attachMetrics(ReadabilityResult result, Map<String,Double> metrics) {
+        if(result.metrics == null) {
+            result.metrics = new HashMap<>();
+        }
+        result.metrics.putAll(metrics);
+    }
+
+    /**
+     * Recreate a ReadabilityResult that was stored by the ScoreStore.
+     * A restored result is not linked to an analyzed file.
+     *
+     * @param readability the stored readability score
+     * @param metrics the stored metric values or null if no metrics were stored
+     * @return the restored ReadabilityResult object
+     */
+    public static ReadabilityResult restore(double readability, Map<String,Double> metrics) {
+        return new ReadabilityResult(null, readability, metrics);
+    }
+
     /**
      * Create a new Readability result
      * @param analyzedFile the java file containing the code analyzed by the model
@@ -102,6 +128,7 @@ public class ReadabilityResult {
     private ReadabilityResult(String analyzedFile, double readability, Map<String,Double> metrics) {
         this.analyzedFile = analyzedFile;
         this.readability = readability;
+        this.metrics = metrics;
     }
 
     /**
@@ -0,0 +1,73 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of a process that rates java files and extracts their code metrics in a single JVM.
+ *
+ * Calling "java -jar RSE.jar" and "java -cp RSE.jar ...ExtractMetrics" for every file requires a JVM start
+ * (and loading the model) for the rating plus another one per file for the metrics.
+ * This entry point loads the RSE.jar once (using the RseRunner) and calls both model entry points for all files.
+ *
+ * The stdout of this process starts with the stdout of the rating. It is followed by one section for every file,
+ * starting with a line "### metrics [file path]" and containing the stdout of the metrics extraction.
+ *
+ * The process must be started within the directory of the RSE.jar, as the model expects the classifier there.
+ */
+public class RseFusedRating {
+
+    static final String METRICS_SECTION = "### metrics ";
+
+    private RseFusedRating() {
+
+    }
+
+    /**
+     * Rate the given files and extract their metrics
+     * @param args the path pointing to the RSE.jar followed by the java files (or directories containing java files)
+     *             to rate
+     * @throws Exception if the model failed to rate a file or to extract its metrics
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> filePaths = new ArrayList<>();
+        for (String path : Arrays.asList(args).subList(1, args.length)) {
+            filePaths.addAll(expandJavaFiles(path));
+        }
+
+        try (RseRunner rse = new RseRunner(new File(args[0]))) {
+            StringBuilder output = new StringBuilder(rse.runReadability(filePaths));
+            for (String filePath : filePaths) {
+                output.append(METRICS_SECTION).append(filePath).append("\n");
+                output.append(rse.runMetrics(filePath));
+            }
+            System.out.print(output);
+            System.out.flush();
+        }
+    }
+
+    /**
+     * If a path points to a directory, all java files within the directory are returned.
+     * Otherwise, the path itself is returned.
+     * @param path the path to expand
+     * @return the paths of the java files to rate
+     */
+    private static List<String> expandJavaFiles(String path) {
+        File file = new File(path);
+        if (!file.isDirectory()) {
+            return List.of(path);
+        }
+
+        File[] javaFiles = file.listFiles((dir, name) -> name.endsWith(".java"));
+        List<String> javaFilePaths = new ArrayList<>();
+        if (javaFiles != null) {
+            Arrays.sort(javaFiles);
+            for (File javaFile : javaFiles) {
+                javaFilePaths.add(javaFile.getPath());
+            }
+        }
+        return javaFilePaths;
+    }
+}
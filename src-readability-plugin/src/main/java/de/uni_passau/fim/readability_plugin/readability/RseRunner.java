@@ -0,0 +1,178 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+/**
+ * The Scalabrino Model RSE.jar only provides command line entry points which print their results to stdout.
+ * Starting a new JVM for every call does load the model classes and the classifier again and again.
+ *
+ * This class loads the RSE.jar a single time into an isolated class loader and calls the entry points of the
+ * model directly within the current JVM. The stdout written by the entry points is captured and returned as a
+ * string, which has the same format as the stdout of a "java -jar RSE.jar" process.
+ * Therefore, the existing parsing methods of the ReadabilityResult class can be reused.
+ *
+ * The runner is only used within the processes the plugin starts (RseWorker, RseFusedRating), never within the IDE:
+ * the model reads its classifier from the working directory and offers no way to pass another path, and capturing
+ * its output requires replacing System.out of the whole JVM. These processes run in the model directory and call
+ * one entry point at a time.
+ */
+public class RseRunner implements Closeable {
+
+    public static final String METRICS_MAIN_CLASS = "it.unimol.readability.metric.runnable.ExtractMetrics";
+    public static final String CLASSIFIER_FILE = "readability.classifier";
+
+    private final URLClassLoader classLoader;
+    private final Method readabilityMain;
+    private final Method metricsMain;
+
+    /**
+     * Load the RSE.jar into a new class loader.
+     * The class loader does only delegate to the platform class loader, so the classes of the model can not clash
+     * with the libraries of the IDE.
+     * @param rseJar the RSE.jar file, the classifier is expected in the same directory
+     * @throws IOException if the jar file could not be read or the model would not find its classifier
+     * @throws ReflectiveOperationException if the entry points of the model could not be found in the jar
+     */
+    public RseRunner(File rseJar) throws IOException, ReflectiveOperationException {
+        checkClassifier(rseJar.getAbsoluteFile().getParentFile());
+
+        String readabilityMainClass;
+        try (JarFile jarFile = new JarFile(rseJar)) {
+            readabilityMainClass = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        }
+        if (readabilityMainClass == null) {
+            throw new ClassNotFoundException("RSE.jar does not define a Main-Class in its manifest");
+        }
+
+        classLoader = new URLClassLoader(new URL[]{rseJar.toURI().toURL()}, ClassLoader.getPlatformClassLoader());
+        readabilityMain = findMainMethod(readabilityMainClass);
+        metricsMain = findMainMethod(METRICS_MAIN_CLASS);
+    }
+
+    /**
+     * Make sure the classifier the model reads from the working directory is the classifier of the model directory.
+     * @param modelDirectory the directory containing the RSE.jar and the classifier
+     * @throws IOException if the classifier is missing or the working directory is not the model directory
+     */
+    private static void checkClassifier(File modelDirectory) throws IOException {
+        Path classifier = new File(modelDirectory, CLASSIFIER_FILE).toPath();
+        if (!Files.isRegularFile(classifier)) {
+            throw new IOException("No " + CLASSIFIER_FILE + " found in the model directory " + modelDirectory);
+        }
+        Path workingDirectoryClassifier = Path.of(CLASSIFIER_FILE).toAbsolutePath();
+        if (!Files.exists(workingDirectoryClassifier) || !Files.isSameFile(classifier, workingDirectoryClassifier)) {
+            throw new IOException("The model reads " + CLASSIFIER_FILE + " from the working directory "
+                    + workingDirectoryClassifier.getParent() + ", but the model directory is " + modelDirectory);
+        }
+    }
+
+    /**
+     * Rate the readability of the given java files.
+     * This is the in memory equivalent of calling "java -jar RSE.jar [files]".
+     * @param filePaths the paths pointing to the java files to rate
+     * @return the captured stdout of the model
+     * @throws InvocationTargetException if the model failed to rate the files
+     */
+    public String runReadability(List<String> filePaths) throws InvocationTargetException {
+        return runMain(readabilityMain, filePaths.toArray(new String[0]));
+    }
+
+    /**
+     * Extract the code metrics of a java file.
+     * This is the in memory equivalent of calling "java -cp RSE.jar ...ExtractMetrics [file]".
+     * @param filePath the path pointing to the java file to extract the metrics for
+     * @return the captured stdout of the model
+     * @throws InvocationTargetException if the model failed to extract the metrics
+     */
+    public String runMetrics(String filePath) throws InvocationTargetException {
+        return runMain(metricsMain, new String[]{filePath});
+    }
+
+    /**
+     * Processes running the model outside the IDE (like the RseWorker) are started with the classes of the plugin
+     * on their class path. This method provides the jar (or class directory) the plugin classes were loaded from.
+     * @return the class path of the plugin classes
+     * @throws IOException if the location of the plugin classes could not be determined
+     */
+    public static String findPluginClassPath() throws IOException {
+        try {
+            return new File(RseRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        }
+        catch (URISyntaxException | NullPointerException error) {
+            throw new IOException("Failed to find the plugin class path", error);
+        }
+    }
+
+    /**
+     * Provide the java binary of the running JVM, used to start processes running the model outside the IDE.
+     * @return the path pointing to the java binary
+     */
+    public static String findJavaBinary() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    /**
+     * Release the class loader holding the model classes
+     * @throws IOException if the jar could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        classLoader.close();
+    }
+
+    /**
+     * Find the static main method of a class within the RSE.jar
+     * @param className the fully qualified class name
+     * @return the main method
+     * @throws ReflectiveOperationException if the class or method does not exist
+     */
+    private Method findMainMethod(String className) throws ReflectiveOperationException {
+        Class<?> mainClass = Class.forName(className, true, classLoader);
+        return mainClass.getMethod("main", String[].class);
+    }
+
+    /**
+     * Call a main method while capturing everything written to stdout.
+     * System.out is replaced for the duration of the call only, so the caller must not run other entry points
+     * (or print to stdout from other threads) in the meantime.
+     * @param main the main method to call
+     * @param args the command line arguments
+     * @return the captured stdout
+     * @throws InvocationTargetException if the main method threw an exception
+     */
+    private String runMain(Method main, String[] args) throws InvocationTargetException {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        ClassLoader previousContextLoader = Thread.currentThread().getContextClassLoader();
+        PrintStream previousOut = System.out;
+        PrintStream capture = new PrintStream(captured, true, StandardCharsets.UTF_8);
+        Thread.currentThread().setContextClassLoader(classLoader);
+        System.setOut(capture);
+        try {
+            main.invoke(null, (Object) args);
+        }
+        catch (IllegalAccessException error) {
+            throw new InvocationTargetException(error);
+        }
+        finally {
+            capture.flush();
+            System.setOut(previousOut);
+            Thread.currentThread().setContextClassLoader(previousContextLoader);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,136 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of a long living RSE worker process.
+ *
+ * A worker loads the RSE.jar (and therefore the model) once and then rates the code snippets it receives
+ * on stdin until it is shut down. Requests and responses are exchanged as length prefixed frames:
+ *
+ * request:  [int type][int length][length bytes of UTF-8 code]
+ * response: [int status][int count][count times: int length, length bytes of UTF-8 text]
+ *
+ * A successful rating responds with the stdout of the model (and the stdout of the metrics extraction if metrics
+ * were requested), an error responds with a single text holding the error message.
+ *
+ * The worker must be started within the directory of the RSE.jar, as the model expects the classifier there.
+ * The process only has the plugin jar on its class path, so neither this class nor the classes it uses
+ * (RseRunner, SnippetStaging) may depend on the IntelliJ platform.
+ */
+public class RseWorker {
+
+    static final int REQUEST_PING = 0;
+    static final int REQUEST_RATE = 1;
+    static final int REQUEST_RATE_WITH_METRICS = 2;
+    static final int REQUEST_SHUTDOWN = 3;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_ERROR = 1;
+
+    private RseWorker() {
+
+    }
+
+    /**
+     * Start the worker loop.
+     * @param args the path pointing to the RSE.jar and the directory to place the code snippets in if no memory
+     *             backed staging area is available
+     * @throws Exception if the model could not be loaded or the connection to the plugin broke
+     */
+    public static void main(String[] args) throws Exception {
+        DataOutputStream protocolOut = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        DataInputStream protocolIn = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+
+        //stdout is reserved for the protocol, everything else the model prints goes to stderr
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true, StandardCharsets.UTF_8));
+
+        File rseJar = new File(args[0]);
+        SnippetStaging staging = new SnippetStaging(new File(args[1]));
+
+        try (RseRunner rse = new RseRunner(rseJar)) {
+            while (true) {
+                int type;
+                try {
+                    type = protocolIn.readInt();
+                }
+                catch (EOFException closed) {
+                    return;
+                }
+                byte[] payload = new byte[protocolIn.readInt()];
+                protocolIn.readFully(payload);
+
+                if (type == REQUEST_SHUTDOWN) {
+                    return;
+                }
+                if (type == REQUEST_PING) {
+                    writeResponse(protocolOut, STATUS_OK, List.of());
+                    continue;
+                }
+
+                try {
+                    List<String> output = rate(rse, staging, payload, type == REQUEST_RATE_WITH_METRICS);
+                    writeResponse(protocolOut, STATUS_OK, output);
+                }
+                catch (Exception error) {
+                    writeResponse(protocolOut, STATUS_ERROR, List.of(String.valueOf(error)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Rate a single code snippet.
+     * @param rse the runner holding the loaded model
+     * @param staging the staging area to place the code snippet in
+     * @param code the UTF-8 encoded code of the snippet
+     * @param attachMetrics whether to also extract the code metrics
+     * @return the model stdout and (if requested) the metrics stdout
+     * @throws Exception if the model failed to rate the snippet
+     */
+    private static List<String> rate(RseRunner rse, SnippetStaging staging, byte[] code, boolean attachMetrics) throws Exception {
+        try (SnippetStaging.StagedSnippets staged = staging.stage(List.of(new String(code, StandardCharsets.UTF_8)))) {
+            String path = staged.getPaths().get(0);
+
+            List<String> output = new ArrayList<>();
+            output.add(rse.runReadability(List.of(path)));
+            if (attachMetrics) {
+                output.add(rse.runMetrics(path));
+            }
+            return output;
+        }
+    }
+
+    /**
+     * Write a response frame and flush it to the plugin.
+     * @param out the protocol stream
+     * @param status the response status
+     * @param texts the texts to send
+     * @throws IOException if the connection to the plugin broke
+     */
+    private static void writeResponse(DataOutputStream out, int status, List<String> texts) throws IOException {
+        out.writeInt(status);
+        out.writeInt(texts.size());
+        for (String text : texts) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,439 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed size pool of long living RSE worker processes (see RseWorker).
+ *
+ * Every worker keeps the model loaded, so the startup of a JVM is not required when rating a code snippet.
+ * The workers are started on first use. Before a worker is used its health is checked: crashed workers are
+ * restarted and workers that were idle for a longer time are pinged first. If a worker breaks while rating a
+ * snippet, it is restarted and the request is sent once more.
+ *
+ * Reading the response of a worker can not be interrupted. Instead, the workers that are waited for are watched:
+ * if the waiting thread gets interrupted (e.g. because the rating was cancelled) or the worker did not respond
+ * within its deadline, the worker is destroyed forcibly, which stops the rating and unblocks the thread.
+ * The destroyed workers are restarted on their next use. A request whose worker hung is not sent again.
+ */
+public class RseWorkerPool implements Closeable {
+
+    private static final long PING_AFTER_IDLE_MILLIS = 30_000;
+    private static final long PING_TIMEOUT_MILLIS = 5_000;
+    private static final long RESPONSE_TIMEOUT_MILLIS = 60_000;
+    private static final long INTERRUPT_CHECK_MILLIS = 50;
+
+    private static final ScheduledExecutorService interruptWatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread watcherThread = new Thread(runnable, "readability-worker-interrupt-watcher");
+        watcherThread.setDaemon(true);
+        return watcherThread;
+    });
+
+    private final File rseJar;
+    private final File snippetDir;
+    private final BlockingQueue<WorkerProcess> idleWorkers;
+    private final ConcurrentHashMap<WorkerProcess,Thread> busyWorkers = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> interruptCheck;
+
+    /**
+     * Create a new pool. No worker process is started before the first snippet must be rated.
+     * @param rseJar the RSE.jar the workers should load
+     * @param snippetDir the directory the workers place the code snippets in
+     * @param size the number of worker processes
+     */
+    public RseWorkerPool(File rseJar, File snippetDir, int size) {
+        this.rseJar = rseJar;
+        this.snippetDir = snippetDir;
+        idleWorkers = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            idleWorkers.add(new WorkerProcess());
+        }
+        interruptCheck = interruptWatcher.scheduleWithFixedDelay(this::killBlockedWorkers,
+                INTERRUPT_CHECK_MILLIS, INTERRUPT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of worker processes of the pool
+     * @return the pool size
+     */
+    public int size() {
+        return idleWorkers.remainingCapacity() + idleWorkers.size();
+    }
+
+    /**
+     * Rate a (already wrapped) java class using one of the workers.
+     * The call blocks until a worker is available.
+     * @param code the java code to rate
+     * @param attachMetrics whether the worker should also extract the code metrics
+     * @return the response of the worker
+     * @throws IOException if no healthy worker could process the request
+     * @throws InterruptedException if the thread was interrupted while waiting for or using a worker
+     */
+    public WorkerResponse rate(String code, boolean attachMetrics) throws IOException, InterruptedException {
+        int type = attachMetrics ? RseWorker.REQUEST_RATE_WITH_METRICS : RseWorker.REQUEST_RATE;
+        byte[] payload = code.getBytes(StandardCharsets.UTF_8);
+
+        WorkerProcess worker = idleWorkers.take();
+        busyWorkers.put(worker, Thread.currentThread());
+        try {
+            worker.ensureHealthy();
+            try {
+                return worker.request(type, payload);
+            }
+            catch (IOException brokenWorker) {
+                checkInterrupted(brokenWorker);
+                checkTimedOut(worker, brokenWorker);
+                worker.restart();
+                return worker.request(type, payload);
+            }
+        }
+        catch (IOException error) {
+            worker.destroy();
+            checkInterrupted(error);
+            throw error;
+        }
+        finally {
+            busyWorkers.remove(worker);
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Rate multiple (already wrapped) java classes using as many workers of the pool as possible.
+     * The snippets are sent in waves: every borrowed worker gets one snippet, then all responses of the wave are
+     * read before the next wave is sent. This way the workers rate in parallel without requiring a thread per
+     * worker.
+     *
+     * If a worker breaks during the batch, the borrowed workers are restarted and the snippets that were not
+     * answered yet are rated one by one instead. If a worker hung, the batch fails.
+     *
+     * @param codes the java codes to rate
+     * @param attachMetrics whether the workers should also extract the code metrics
+     * @return the responses in the order of the given codes
+     * @throws IOException if no healthy worker could process the requests
+     * @throws InterruptedException if the thread was interrupted while waiting for or using the workers
+     */
+    public List<WorkerResponse> rateAll(List<String> codes, boolean attachMetrics) throws IOException, InterruptedException {
+        if (codes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int type = attachMetrics ? RseWorker.REQUEST_RATE_WITH_METRICS : RseWorker.REQUEST_RATE;
+
+        List<WorkerProcess> borrowed = new ArrayList<>();
+        borrowed.add(idleWorkers.take());
+        idleWorkers.drainTo(borrowed, codes.size() - 1);
+        for (WorkerProcess worker : borrowed) {
+            busyWorkers.put(worker, Thread.currentThread());
+        }
+
+        WorkerResponse[] responses = new WorkerResponse[codes.size()];
+        boolean batchFailed = false;
+        try {
+            for (WorkerProcess worker : borrowed) {
+                worker.ensureHealthy();
+            }
+            for (int waveStart = 0; waveStart < codes.size(); waveStart += borrowed.size()) {
+                int waveEnd = Math.min(waveStart + borrowed.size(), codes.size());
+                for (int i = waveStart; i < waveEnd; i++) {
+                    borrowed.get(i - waveStart).send(type, codes.get(i).getBytes(StandardCharsets.UTF_8));
+                }
+                for (int i = waveStart; i < waveEnd; i++) {
+                    responses[i] = borrowed.get(i - waveStart).receive();
+                }
+            }
+        }
+        catch (IOException brokenWorker) {
+            batchFailed = true;
+            for (WorkerProcess worker : borrowed) {
+                worker.destroy();
+            }
+            checkInterrupted(brokenWorker);
+            for (WorkerProcess worker : borrowed) {
+                checkTimedOut(worker, brokenWorker);
+            }
+        }
+        finally {
+            for (WorkerProcess worker : borrowed) {
+                busyWorkers.remove(worker);
+            }
+            idleWorkers.addAll(borrowed);
+        }
+
+        if (batchFailed) {
+            for (int i = 0; i < codes.size(); i++) {
+                if (responses[i] == null) {
+                    responses[i] = rate(codes.get(i), attachMetrics);
+                }
+            }
+        }
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Kill the workers whose waiting thread got interrupted or that did not respond within their deadline,
+     * called periodically by the interrupt watcher
+     */
+    private void killBlockedWorkers() {
+        long now = System.nanoTime();
+        for (Map.Entry<WorkerProcess,Thread> busyWorker : busyWorkers.entrySet()) {
+            WorkerProcess worker = busyWorker.getKey();
+            if (busyWorker.getValue().isInterrupted()) {
+                worker.kill();
+            }
+            else if (worker.isOverdue(now)) {
+                worker.timedOut = true;
+                worker.kill();
+            }
+        }
+    }
+
+    /**
+     * A worker broken because its thread got interrupted must not be restarted, the rating was cancelled instead
+     * @param brokenWorker the error caused by the broken worker
+     * @throws InterruptedException if the current thread got interrupted
+     */
+    private static void checkInterrupted(IOException brokenWorker) throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            InterruptedException interrupted = new InterruptedException("Rating was cancelled");
+            interrupted.initCause(brokenWorker);
+            throw interrupted;
+        }
+    }
+
+    /**
+     * A worker that was killed because it did not respond in time must not get the request again,
+     * the same snippet would most likely hang the new worker as well
+     * @param worker the broken worker
+     * @param brokenWorker the error caused by the broken worker
+     * @throws IOException if the worker was killed because of its deadline
+     */
+    private static void checkTimedOut(WorkerProcess worker, IOException brokenWorker) throws IOException {
+        if (worker.timedOut) {
+            throw new IOException("rse worker did not respond in time and was killed", brokenWorker);
+        }
+    }
+
+    /**
+     * Shut down the idle workers of the pool and kill the workers that are still rating
+     */
+    @Override
+    public void close() {
+        interruptCheck.cancel(false);
+        for (WorkerProcess worker : busyWorkers.keySet()) {
+            worker.kill();
+        }
+        for (WorkerProcess worker : idleWorkers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * The answer of a worker to a rating request
+     */
+    public static class WorkerResponse {
+        private final boolean successful;
+        private final List<String> texts;
+
+        private WorkerResponse(boolean successful, List<String> texts) {
+            this.successful = successful;
+            this.texts = texts;
+        }
+
+        /**
+         * Returns true if the worker rated the snippet without an error
+         * @return whether the rating was successful or not
+         */
+        public boolean isSuccessful() {
+            return successful;
+        }
+
+        /**
+         * Get the model stdout of the rating
+         * @return the readability stdout or the error message if the rating failed
+         */
+        public String getReadabilityStdOut() {
+            return texts.get(0);
+        }
+
+        /**
+         * Get the metrics stdout of the rating
+         * @return the metrics stdout or null if no metrics were requested
+         */
+        public String getMetricsStdOut() {
+            return texts.size() > 1 ? texts.get(1) : null;
+        }
+    }
+
+    /**
+     * A single worker process and the streams used to talk to it
+     */
+    private class WorkerProcess {
+        private volatile Process process;
+        private DataOutputStream requests;
+        private DataInputStream responses;
+        private long lastUsed;
+        private volatile long responseDeadline;
+        private volatile boolean timedOut;
+
+        /**
+         * Make sure the worker process is running and responding.
+         * @throws IOException if the worker could not be (re)started
+         */
+        private void ensureHealthy() throws IOException {
+            if (process == null || !process.isAlive()) {
+                restart();
+                return;
+            }
+            if (System.currentTimeMillis() - lastUsed > PING_AFTER_IDLE_MILLIS) {
+                try {
+                    send(RseWorker.REQUEST_PING, new byte[0], PING_TIMEOUT_MILLIS);
+                    receive();
+                }
+                catch (IOException notResponding) {
+                    restart();
+                }
+            }
+        }
+
+        /**
+         * Send a request frame to the worker and read the response frame
+         * @param type the request type
+         * @param payload the request payload
+         * @return the response of the worker
+         * @throws IOException if the connection to the worker broke
+         */
+        private WorkerResponse request(int type, byte[] payload) throws IOException {
+            send(type, payload);
+            return receive();
+        }
+
+        /**
+         * Send a request frame to the worker, the worker must respond within the default response timeout
+         * @param type the request type
+         * @param payload the request payload
+         * @throws IOException if the connection to the worker broke
+         */
+        private void send(int type, byte[] payload) throws IOException {
+            send(type, payload, RESPONSE_TIMEOUT_MILLIS);
+        }
+
+        /**
+         * Send a request frame to the worker.
+         * If the worker does not respond within the timeout, it is killed by the interrupt watcher.
+         * @param type the request type
+         * @param payload the request payload
+         * @param timeoutMillis the time the worker may take to respond
+         * @throws IOException if the connection to the worker broke
+         */
+        private void send(int type, byte[] payload, long timeoutMillis) throws IOException {
+            timedOut = false;
+            responseDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            requests.writeInt(type);
+            requests.writeInt(payload.length);
+            requests.write(payload);
+            requests.flush();
+        }
+
+        /**
+         * Read the response frame for the last request sent to the worker
+         * @return the response of the worker
+         * @throws IOException if the connection to the worker broke
+         */
+        private WorkerResponse receive() throws IOException {
+            int status = responses.readInt();
+            int count = responses.readInt();
+            List<String> texts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] text = new byte[responses.readInt()];
+                responses.readFully(text);
+                texts.add(new String(text, StandardCharsets.UTF_8));
+            }
+            responseDeadline = 0;
+            lastUsed = System.currentTimeMillis();
+            return new WorkerResponse(status == RseWorker.STATUS_OK, texts);
+        }
+
+        /**
+         * Kill the current process (if any) and start a new one
+         * @throws IOException if the process could not be started
+         */
+        private void restart() throws IOException {
+            destroy();
+
+            ProcessBuilder workerCommand = new ProcessBuilder(RseRunner.findJavaBinary(), "-cp", RseRunner.findPluginClassPath(),
+                    RseWorker.class.getName(), rseJar.getAbsolutePath(), snippetDir.getAbsolutePath());
+            workerCommand.directory(rseJar.getParentFile());
+            workerCommand.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+            process = workerCommand.start();
+            requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns true if the worker is waited for longer than its response deadline
+         * @param now the current System.nanoTime
+         * @return whether the worker is overdue or not
+         */
+        private boolean isOverdue(long now) {
+            long deadline = responseDeadline;
+            return deadline != 0 && now - deadline > 0;
+        }
+
+        /**
+         * Ask the worker to terminate
+         */
+        private void shutdown() {
+            if (process == null || !process.isAlive()) {
+                return;
+            }
+            try {
+                requests.writeInt(RseWorker.REQUEST_SHUTDOWN);
+                requests.writeInt(0);
+                requests.flush();
+            }
+            catch (IOException error) {
+                destroy();
+            }
+        }
+
+        /**
+         * Kill the worker process from another thread, so the thread using the worker gets an IOException.
+         * Unlike destroy, the process is kept, so the thread using the worker notices the dead process.
+         */
+        private void kill() {
+            Process current = process;
+            if (current != null) {
+                current.destroyForcibly();
+            }
+        }
+
+        /**
+         * Kill the worker process
+         */
+        private void destroy() {
+            if (process != null) {
+                process.destroyForcibly();
+                process = null;
+            }
+        }
+    }
+}
@@ -15,10 +15,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.regex.Pattern;
 
 /**
  * Implementation of the ReadabilityApi interface to support
@@ -26,8 +31,14 @@ import java.util.jar.JarFile;
  */
 public class ScalabrinoReadabilityApi implements ReadabilityApi {
 
+    private static final int MAX_OUTPUT_BYTES = 16 * 1024 * 1024;
+    private static final long PROCESS_TIMEOUT_MILLIS = 60_000;
+    private static final long PROCESS_TIMEOUT_PER_FILE_MILLIS = 5_000;
+
+    private final ProcessRunner processRunner = new ProcessRunner(MAX_OUTPUT_BYTES);
     private final File tempDir;
     private final String rseJarPath;
+    private final SnippetStaging staging;
 
     private static ScalabrinoReadabilityApi instance;
 
@@ -51,6 +62,7 @@ public class ScalabrinoReadabilityApi implements ReadabilityApi {
         try {
             tempDir = findTempDir();
             rseJarPath = findRseJarPath();
+            staging = new SnippetStaging(tempDir);
 
         }
         catch (NullPointerException | IOException error) {
@@ -128,31 +140,124 @@ public class ScalabrinoReadabilityApi implements ReadabilityApi {
     @Override
     public ReadabilityResult processCodeSnippet(String codeSnippet, boolean attachMetrics, PsiElement linkedPsiElement) throws ReadabilityProcessException {
 
-        File tempSnippetFile;
-
-        try {
+        List<PsiElement> linkedPsiElements = Collections.singletonList(linkedPsiElement);
+        try (SnippetStaging.StagedSnippets staged = stageSnippets(List.of(codeSnippet), linkedPsiElements)) {
+            return processFile(staged.getPaths().get(0), attachMetrics);
+        }
+    }
 
-            String wrappedClassSnippet = codeSnippet;
+    /**
+     * The RSE.jar does only rate complete java classes.
+     * Code snippets that are no complete class are therefore wrapped in a class (and a method if the snippet
+     * is no method itself) before they are rated.
+     *
+     * @param codeSnippet the code snippet to wrap
+     * @param linkedPsiElement the java parse tree element linked to the provided source code
+     * @return the wrapped code snippet
+     */
+    static String wrapCodeSnippet(String codeSnippet, PsiElement linkedPsiElement) {
+        String wrappedClassSnippet = codeSnippet;
 
-            if(!(linkedPsiElement instanceof PsiJavaFile)) {
-                if(!(linkedPsiElement instanceof PsiMethod)) {
-                    wrappedClassSnippet = "    public static void main(String[] args) {\n"+wrappedClassSnippet+"\n    }";
-                }
-                wrappedClassSnippet = "public class Main() {\n"+wrappedClassSnippet+"\n}";
+        if(!(linkedPsiElement instanceof PsiJavaFile)) {
+            if(!(linkedPsiElement instanceof PsiMethod)) {
+                wrappedClassSnippet = "    public static void main(String[] args) {\n"+wrappedClassSnippet+"\n    }";
             }
+            wrappedClassSnippet = "public class Main() {\n"+wrappedClassSnippet+"\n}";
+        }
+        return wrappedClassSnippet;
+    }
 
-            tempSnippetFile = File.createTempFile("snippet",".java", tempDir);
-            tempSnippetFile.setWritable(true);
-            BufferedWriter writer = new BufferedWriter(new FileWriter(tempSnippetFile));
-            writer.write(wrappedClassSnippet);
-            writer.close();
+    /**
+     * Wraps code snippets in classes and writes them to a new batch directory of the staging area,
+     * so they can be passed to the RSE.jar.
+     * The staging area is memory backed whenever the operating system supports it.
+     *
+     * @param codeSnippets the code snippets to write
+     * @param linkedPsiElements the java parse tree elements linked to the code snippets
+     * @return the staged snippets, which must be closed after rating them to delete the files
+     * @throws ReadabilityProcessException if the snippets could not be written
+     */
+    SnippetStaging.StagedSnippets stageSnippets(List<String> codeSnippets, List<PsiElement> linkedPsiElements) throws ReadabilityProcessException {
+        List<String> wrappedClassSnippets = new ArrayList<>();
+        for (int i = 0; i < codeSnippets.size(); i++) {
+            wrappedClassSnippets.add(wrapCodeSnippet(codeSnippets.get(i), linkedPsiElements.get(i)));
+        }
+
+        try {
+            return staging.stage(wrappedClassSnippets);
         }
         catch (IOException error) {
             throw new ReadabilityProcessException("Got IO Exception when processing snippet", error, null);
         }
-        ReadabilityResult result = processFile(tempSnippetFile.getPath(),attachMetrics);
-        tempSnippetFile.delete();
-        return result;
+    }
+
+    /**
+     * Get the directory path of the folder containing the RSE.jar and the readability.classifier
+     * @return the model directory path
+     */
+    String getRseJarPath() {
+        return rseJarPath;
+    }
+
+    /**
+     * Get the directory the code snippets are placed in before they are rated
+     * @return the temp dir
+     */
+    File getTempDir() {
+        return tempDir;
+    }
+
+    /**
+     * Rates all code snippets with a single RSE.jar process.
+     * The snippets are staged in a common batch directory, the directory is passed to the RSE.jar and the
+     * results are mapped back to the snippets by their file names.
+     *
+     * @param codeSnippets the code snippets to be evaluated
+     * @param attachMetrics whether to attach code metrics or not
+     * @param linkedPsiElements the java parse tree elements linked to the provided code snippets
+     * @return the Readability Rating Results in the order of the given snippets
+     * @throws ReadabilityProcessException if any issued appear during the code rating process
+     */
+    @Override
+    public List<ReadabilityResult> processCodeSnippets(List<String> codeSnippets, boolean attachMetrics,
+                                                       List<PsiElement> linkedPsiElements) throws ReadabilityProcessException {
+        if(codeSnippets.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        try (SnippetStaging.StagedSnippets staged = stageSnippets(codeSnippets, linkedPsiElements)) {
+            String batchDir = staged.getDirectory().getPath();
+            return matchBatchResults(processFiles(batchDir, codeSnippets.size(), attachMetrics), codeSnippets.size());
+        }
+    }
+
+    /**
+     * The RSE.jar does not necessarily print the results in the order of the rated files.
+     * This method orders the results of a batch by the snippet index encoded in the file names.
+     *
+     * @param resultList the results of the batch
+     * @param batchSize the number of snippets in the batch
+     * @return the results in the order of the snippets
+     * @throws ReadabilityProcessException if the RSE.jar did not provide a result for every snippet
+     */
+    static List<ReadabilityResult> matchBatchResults(List<ReadabilityResult> resultList, int batchSize) throws ReadabilityProcessException {
+        ReadabilityResult[] orderedResults = new ReadabilityResult[batchSize];
+        for(ReadabilityResult result : resultList) {
+            String fileName = new File(result.getAnalyzedFile()).getName();
+            for (int i = 0; i < batchSize; i++) {
+                if(fileName.equals(SnippetStaging.batchFileName(i))) {
+                    orderedResults[i] = result;
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < batchSize; i++) {
+            if(orderedResults[i] == null) {
+                throw new ReadabilityProcessException("rse.jar provided no result for " + SnippetStaging.batchFileName(i), null, null);
+            }
+        }
+        return Arrays.asList(orderedResults);
     }
 
     /**
@@ -164,46 +269,74 @@ public class ScalabrinoReadabilityApi implements ReadabilityApi {
      * @throws ReadabilityProcessException
      */
     private ReadabilityResult processFile(String path, boolean attachMetrics)  throws ReadabilityProcessException {
+        List<ReadabilityResult> resultList = processFiles(path, 1, attachMetrics);
+        if(resultList.isEmpty()) {
+            throw new ReadabilityProcessException("rse.jar provided no result", null, path);
+        }
+        return resultList.get(0);
+    }
+
+    /**
+     * Call the RSE.jar file with parameters to rate the file or all the java files of the directory located
+     * at a given path
+     * @param path the path pointing to the file or directory to rate
+     * @param fileCount the number of files to rate, used to define the deadline of the RSE.jar call
+     * @param attachMetrics whether to attach code metrics to the result objects or not
+     * @return the ReadabilityResults parsed from the RSE.jar output
+     * @throws ReadabilityProcessException
+     */
+    private List<ReadabilityResult> processFiles(String path, int fileCount, boolean attachMetrics)  throws ReadabilityProcessException {
 
-        ProcessBuilder rseCommand;
+        ProcessBuilder rseCommand = null;
+
+        try {
+            if(attachMetrics) {
+                rseCommand = createFusedCommand(path);
+            }
+        }
+        catch (IOException error) {
+            //the plugin classes are required to rate and extract the metrics in a single process,
+            //if they can not be located the metrics are extracted by additional rse.jar processes
+            System.err.println("Failed to create fused rse command, extracting metrics separately");
+            System.err.println(error);
+        }
+        boolean fused = rseCommand != null;
 
         try {
-            rseCommand = createReadabilityCommand(path);
+            if(!fused) {
+                rseCommand = createReadabilityCommand(path);
+            }
         }
         catch (URISyntaxException error) {
             throw new ReadabilityProcessException("Failed to create rse.jar command",error,path);
         }
 
-        Process process;
-        String stdout;
-        String stderr;
-
+        ProcessRunner.ProcessOutput output;
         try {
-            process = rseCommand.start();
-            stderr = getBufferContent(process.getErrorStream());
-            stdout = getBufferContent(process.getInputStream());
+            output = processRunner.run(rseCommand, PROCESS_TIMEOUT_MILLIS + fileCount * PROCESS_TIMEOUT_PER_FILE_MILLIS);
         }
         catch (IOException error) {
             throw new ReadabilityProcessException("Failed to execute rse.jar command",error,path);
         }
-
-        int exitCode;
-        try {
-            exitCode = process.waitFor();
-        }
         catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
             throw new ReadabilityProcessException("Got interrupted during processing ",error,path);
         }
 
-        if (exitCode != 0) {
-            String errorMsg = "rse command terminated with exit code " + exitCode +": " + stderr;
+        String errorMsg = checkOutput(output);
+        if (errorMsg != null) {
             throw new ReadabilityProcessException(errorMsg,null,path);
         }
+        String stdout = output.getStdout();
+
+        if(fused) {
+            return parseFusedStdOut(stdout);
+        }
 
         List<ReadabilityResult> resultList = ReadabilityResult.fromStdOut(stdout);
 
         if(!attachMetrics) {
-            return resultList.get(0);
+            return resultList;
         }
 
         for(ReadabilityResult result: resultList) {
@@ -215,8 +348,39 @@ public class ScalabrinoReadabilityApi implements ReadabilityApi {
                 throw new ReadabilityProcessException("Failed to extract metrics",error,result.getAnalyzedFile());
             }
         }
-        return resultList.get(0);
+        return resultList;
+
+    }
+
+    /**
+     * Parse the stdout of a fused rating process (see RseFusedRating).
+     * The output starts with the stdout of the rating, followed by a metrics section for every rated file.
+     *
+     * @param stdout the stdout of the fused process
+     * @return the ReadabilityResults with the metrics attached
+     * @throws ReadabilityProcessException if the output contains no metrics for a rated file
+     */
+    private List<ReadabilityResult> parseFusedStdOut(String stdout) throws ReadabilityProcessException {
+        String[] sections = stdout.split("(?m)^" + Pattern.quote(RseFusedRating.METRICS_SECTION));
+        List<ReadabilityResult> resultList = ReadabilityResult.fromStdOut(sections[0]);
+
+        Map<String,String> metricsStdouts = new HashMap<>();
+        for (int i = 1; i < sections.length; i++) {
+            int pathEnd = sections[i].indexOf('\n');
+            if(pathEnd < 0) {
+                continue;
+            }
+            metricsStdouts.put(sections[i].substring(0, pathEnd), sections[i].substring(pathEnd + 1));
+        }
 
+        for(ReadabilityResult result: resultList) {
+            String metricsStdout = metricsStdouts.get(result.getAnalyzedFile());
+            if(metricsStdout == null) {
+                throw new ReadabilityProcessException("Fused rse command provided no metrics",null,result.getAnalyzedFile());
+            }
+            ReadabilityResult.attachMetrics(result,metricsStdout);
+        }
+        return resultList;
     }
 
     /**
@@ -239,51 +403,50 @@ public class ScalabrinoReadabilityApi implements ReadabilityApi {
             throw new MetricsProcessException("Failed to create metrics extract command",result,error);
         }
 
-        Process process;
-        String stdout;
-        String stderr;
-
+        ProcessRunner.ProcessOutput output;
         try {
-            process = metricsCommand.start();
-            stderr = getBufferContent(process.getErrorStream());
-            stdout = getBufferContent(process.getInputStream());
+            output = processRunner.run(metricsCommand, PROCESS_TIMEOUT_MILLIS);
         }
         catch (IOException error) {
             throw new MetricsProcessException("Failed to execute metrics rse.jar command",result,error);
         }
-
-        int exitCode;
-        try {
-            exitCode = process.waitFor();
-        }
         catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
             throw new MetricsProcessException("Got interrupted during processing metrics",result,error);
         }
 
-        if (exitCode != 0) {
-            String errorMsg = "rse command terminated with exit code " + exitCode +": " + stderr;
+        String errorMsg = checkOutput(output);
+        if (errorMsg != null) {
             throw new MetricsProcessException(errorMsg,result,null);
         }
-        return stdout;
+        return output.getStdout();
     }
 
     /**
-     * Convert an input stream buffer to a string by extracting its content.
-     * @param input the input stream to extract the content from.
-     * @return the extracted content.
-     * @throws IOException if a error appears during the conversion process
+     * Check whether a rse command terminated successfully and provided its complete output.
+     * @param output the output of the rse command
+     * @return an error message describing the failure or null if the command succeeded
      */
-    private String getBufferContent(InputStream input) throws IOException {
-        String bufferContent = "";
-
-        BufferedReader outputReader = new BufferedReader(new InputStreamReader(input));
-        String nextLine;
-        while ((nextLine = outputReader.readLine()) != null) {
-            bufferContent += nextLine;
-            bufferContent += "\n";
+    private static String checkOutput(ProcessRunner.ProcessOutput output) {
+        if (output.isTimedOut()) {
+            return "rse command was killed after " + output.getWallTimeMillis() + "ms: " + output.getStderr();
+        }
+        if (output.getExitCode() != 0) {
+            return "rse command terminated with exit code " + output.getExitCode() +": " + output.getStderr();
+        }
+        if (output.isStdoutTruncated()) {
+            return "rse command output exceeded " + MAX_OUTPUT_BYTES + " bytes (" + output.getBytesRead() + " bytes read)";
         }
+        return null;
+    }
 
-        return bufferContent;
+    /**
+     * Provide the runner executing the rse commands, which keeps track of the bytes read and the wall time
+     * of all commands.
+     * @return the process runner of this api
+     */
+    public ProcessRunner getProcessRunner() {
+        return processRunner;
     }
 
     /**
@@ -314,6 +477,24 @@ public class ScalabrinoReadabilityApi implements ReadabilityApi {
         return readabilityCommand;
     }
 
+    /**
+     * Create the cli command to rate a java file (or all java files of a directory) and extract their code metrics
+     * within a single JVM, using the RseFusedRating entry point of the plugin.
+     *
+     * @param codeFilePath the path pointing to the java file or directory to rate
+     * @return A Process Builder Object that can be used to run the generated cli command
+     * @throws IOException if the plugin classes required to run the RseFusedRating could not be located
+     */
+    private ProcessBuilder createFusedCommand(String codeFilePath) throws IOException {
+        String rseJar = new File(rseJarPath, "RSE.jar").getAbsolutePath();
+
+        ProcessBuilder fusedCommand = new ProcessBuilder(RseRunner.findJavaBinary(), "-cp",
+                RseRunner.findPluginClassPath(), RseFusedRating.class.getName(), rseJar,
+                new File(codeFilePath).getAbsolutePath());
+        fusedCommand.directory(new File(rseJarPath));
+        return fusedCommand;
+    }
+
     /**
      * Create the cli command to call the RSE.jar with a given code snippet.
      * The command will then if executed return the code metrics extracted from the code snippet.
@@ -0,0 +1,820 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import de.uni_passau.fim.readability_plugin.metrics.NativeMetricsExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of readability results that survives IDE restarts.
+ *
+ * Results are addressed by a 64 bit hash of the rated code and the model version, so a method that was rated once
+ * is never rated again - no matter in which file or project it appears. The model version covers everything the
+ * results depend on: the RSE.jar and the version of the native metric extraction.
+ *
+ * The store consists of three files in the system directory of the IDE:
+ * - an append only data file holding one record per result:
+ *   [int body length][long key][double readability][int metric count][metric count times: int name id, double value]
+ *   The metric count is -1 if no metrics were attached to the result.
+ * - an append only table of the metric names, the id of a name is its position within the table:
+ *   [int name length][UTF-8 name]
+ *   The ids never change, so the table is shared by all generations of the data file.
+ * - a memory mapped open addressing hash table mapping keys to record offsets:
+ *   [int magic][int capacity][int size][int data generation][long data length][long dead bytes]
+ *   capacity times: [long key][long record offset] (key 0 marks an empty slot)
+ *
+ * A lookup is a single probe sequence in the mapped table followed by one positional read of the data file.
+ * Records that are replaced stay in the data file as dead bytes until the store is compacted. Compaction also
+ * drops the oldest records if the store grows beyond MAX_ENTRIES. It runs in the background, results are stored
+ * and read from the current files meanwhile.
+ *
+ * All operations are serialized by a ReentrantLock instead of a monitor, as results are read and stored by the
+ * rating tasks, which may run on virtual threads.
+ *
+ * A mapped file can not be replaced on Windows, so files are never overwritten: a grown index or a compacted data
+ * file is written under the next generation number, and the index header names the data generation it belongs to.
+ * The magic of an index is written last, so the newest index with a valid header is the current one. Files of
+ * older generations are deleted as soon as possible, at the latest when the store is opened again.
+ *
+ * The files of other model versions are deleted when the store is opened. If no index matches the data file
+ * (e.g. after a crash), the index is rebuilt by scanning the data file.
+ */
+public class ScoreStore {
+
+    private static final Logger LOG = Logger.getInstance(ScoreStore.class);
+
+    private static final String MODEL = "scalabrino-2018";
+    private static final int FORMAT = 2;
+
+    private static final int INDEX_MAGIC = 0x52535332;
+    private static final int HEADER_BYTES = 32;
+    private static final int SLOT_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 24;
+    private static final int METRIC_BYTES = 12;
+    private static final int MIN_CAPACITY = 1 << 12;
+    private static final int MAX_ENTRIES = 4_000_000;
+    private static final long MIN_COMPACTION_BYTES = 16L << 20;
+
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String NAMES_FILE = "scores.names";
+
+    private static ScoreStore instance;
+
+    private final File baseDirectory;
+    private final File rseJar;
+    private final ExecutorService compactionExecutor;
+    private final ReentrantLock storeLock = new ReentrantLock();
+
+    private File directory;
+    private long versionSeed;
+
+    private boolean opened;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private FileChannel names;
+    private final List<String> metricNames = new ArrayList<>();
+    private final Map<String,Integer> metricIds = new HashMap<>();
+    private FileChannel data;
+    private int dataGeneration;
+    private MappedByteBuffer index;
+    private int indexGeneration;
+    private int capacity;
+    private boolean compacting;
+
+    /**
+     * ScoreStore is implemented as singleton, as all projects should share the stored results.
+     * The store files are not opened before the first result is requested.
+     * @return the singleton instance of the ScoreStore
+     */
+    public static synchronized ScoreStore getInstance() {
+        if(instance == null) {
+            instance = new ScoreStore(new File(PathManager.getSystemPath() + File.separator + "readability_plugin"),
+                    new File(ScalabrinoReadabilityApi.getInstance().getRseJarPath(), "RSE.jar"));
+        }
+        return instance;
+    }
+
+    /**
+     * Create a store within the given directory
+     * @param baseDirectory the directory holding the store files of all model versions
+     * @param rseJar the RSE.jar the results are rated with
+     */
+    ScoreStore(File baseDirectory, File rseJar) {
+        this.baseDirectory = baseDirectory;
+        this.rseJar = rseJar;
+        compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Readability score store compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the stored readability result of a code snippet
+     * @param code the rated code
+     * @return the stored result or null if the code was not rated before
+     */
+    public ReadabilityResult get(String code) {
+        storeLock.lock();
+        try {
+            if(!ensureOpen()) {
+                return null;
+            }
+            long key = key(code);
+            int slot = findSlot(index, capacity, key);
+            if(index.getLong(slot) == 0) {
+                return null;
+            }
+            return readRecord(index.getLong(slot + 8), key);
+        }
+        catch (IOException error) {
+            LOG.warn("Failed to read stored readability result", error);
+            return null;
+        }
+        finally {
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Store the readability result of a code snippet, replacing a previously stored result of the same code
+     * @param code the rated code
+     * @param result the readability result of the code
+     */
+    public void put(String code, ReadabilityResult result) {
+        storeLock.lock();
+        try {
+            if(!ensureOpen()) {
+                return;
+            }
+            long key = key(code);
+            long dataLength = index.getLong(16);
+            ByteBuffer record = createRecord(key, result);
+            while (record.hasRemaining()) {
+                data.write(record, dataLength + record.position());
+            }
+
+            int slot = findSlot(index, capacity, key);
+            if(index.getLong(slot) == 0) {
+                index.putLong(slot, key);
+                index.putInt(8, index.getInt(8) + 1);
+            }
+            else {
+                index.putLong(24, index.getLong(24) + recordSize(data, index.getLong(slot + 8)));
+            }
+            index.putLong(slot + 8, dataLength);
+            index.putLong(16, dataLength + record.limit());
+
+            if(index.getInt(8) * 2L > capacity) {
+                rebuildIndex(capacity * 2);
+            }
+            if(needsCompaction()) {
+                scheduleCompaction();
+            }
+        }
+        catch (IOException error) {
+            LOG.warn("Failed to store readability result, disabling the score store", error);
+            close();
+        }
+        finally {
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of stored results
+     * @return the number of results
+     */
+    public int size() {
+        storeLock.lock();
+        try {
+            return ensureOpen() ? index.getInt(8) : 0;
+        }
+        finally {
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Open the store files if that was not done before. The store is disabled if the files can not be opened,
+     * or if they are locked by another IDE instance.
+     * @return true if the store can be used
+     */
+    private boolean ensureOpen() {
+        if(opened) {
+            return data != null;
+        }
+        opened = true;
+        try {
+            versionSeed = CodeHash.of(modelVersion());
+            directory = new File(baseDirectory, "scores-" + Long.toHexString(versionSeed));
+            Files.createDirectories(directory.toPath());
+            deleteOtherVersions();
+
+            lockChannel = FileChannel.open(new File(directory, "scores.lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock = lockChannel.tryLock();
+            }
+            catch (OverlappingFileLockException error) {
+                lock = null;
+            }
+            if(lock == null) {
+                LOG.info("Score store is used by another IDE instance, results are not persisted");
+                close();
+                return false;
+            }
+
+            openNames();
+            openFiles();
+            if(needsCompaction()) {
+                scheduleCompaction();
+            }
+            return true;
+        }
+        catch (IOException error) {
+            LOG.warn("Failed to open score store, results are not persisted", error);
+            close();
+            return false;
+        }
+    }
+
+    private void close() {
+        try {
+            if(data != null) {
+                data.close();
+            }
+            if(names != null) {
+                names.close();
+            }
+            if(lock != null) {
+                lock.release();
+            }
+            if(lockChannel != null) {
+                lockChannel.close();
+            }
+        }
+        catch (IOException error) {
+            LOG.warn("Failed to close score store", error);
+        }
+        data = null;
+        names = null;
+        metricNames.clear();
+        metricIds.clear();
+        index = null;
+        lock = null;
+        lockChannel = null;
+    }
+
+    /**
+     * The version of everything the stored results depend on, a stored result is only returned for the same version
+     */
+    private String modelVersion() {
+        return MODEL + "/store-" + FORMAT + "/rse-" + Long.toHexString(checksum(rseJar))
+                + "/native-metrics-" + NativeMetricsExtractor.VERSION + "-" + NativeMetricsExtractor.METRIC_COUNT;
+    }
+
+    private static long checksum(File file) {
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                checksum.update(buffer, 0, read);
+            }
+        }
+        catch (IOException error) {
+            LOG.warn("Failed to read " + file + ", stored results can not be matched to it", error);
+            return 0;
+        }
+        return checksum.getValue();
+    }
+
+    private void deleteOtherVersions() {
+        File[] storeDirectories = baseDirectory.listFiles(
+                file -> file.isDirectory() && file.getName().startsWith("scores-"));
+        if(storeDirectories == null) {
+            return;
+        }
+        for (File storeDirectory : storeDirectories) {
+            if(storeDirectory.equals(directory)) {
+                continue;
+            }
+            File[] files = storeDirectory.listFiles();
+            if(files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            storeDirectory.delete();
+        }
+    }
+
+    /**
+     * Open the metric name table and read all names. A partially written name at the end of the table is removed.
+     */
+    private void openNames() throws IOException {
+        names = FileChannel.open(new File(directory, NAMES_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer table = ByteBuffer.allocate((int) names.size());
+        readFully(names, table, 0);
+        table.flip();
+        while (table.remaining() >= 4) {
+            int length = table.getInt(table.position());
+            if(length < 0 || length > table.remaining() - 4) {
+                break;
+            }
+            byte[] name = new byte[length];
+            table.getInt();
+            table.get(name);
+            addMetricName(new String(name, StandardCharsets.UTF_8));
+        }
+        names.truncate(table.position());
+    }
+
+    private void addMetricName(String name) {
+        metricIds.put(name, metricNames.size());
+        metricNames.add(name);
+    }
+
+    /**
+     * Get the id of a metric name, the name is appended to the name table if it was not stored before.
+     * The name is written before any record referring to it.
+     */
+    private int metricId(String name) throws IOException {
+        Integer id = metricIds.get(name);
+        if(id != null) {
+            return id;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length);
+        entry.putInt(bytes.length);
+        entry.put(bytes);
+        entry.flip();
+        long end = names.size();
+        while (entry.hasRemaining()) {
+            names.write(entry, end + entry.position());
+        }
+        addMetricName(name);
+        return metricIds.get(name);
+    }
+
+    /**
+     * Open the newest data file and map the newest index belonging to it. Without such an index it is rebuilt
+     * from the data file. All other store files are deleted.
+     */
+    private void openFiles() throws IOException {
+        int[] dataGenerations = generations(DATA_SUFFIX);
+        dataGeneration = dataGenerations.length == 0 ? 0 : dataGenerations[dataGenerations.length - 1];
+        data = FileChannel.open(file(dataGeneration, DATA_SUFFIX).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        int[] indexGenerations = generations(INDEX_SUFFIX);
+        for (int i = indexGenerations.length - 1; i >= 0 && index == null; i--) {
+            mapExistingIndex(indexGenerations[i]);
+        }
+        if(index == null) {
+            rebuildFromData(indexGenerations.length == 0 ? 0 : indexGenerations[indexGenerations.length - 1] + 1);
+        }
+        deleteStaleFiles();
+    }
+
+    /**
+     * Get the generations of all complete store files of a type
+     * @param suffix the file type
+     * @return the sorted generation numbers
+     */
+    private int[] generations(String suffix) {
+        String[] names = directory.list((parent, name) -> name.startsWith("scores.") && name.endsWith(suffix));
+        if(names == null) {
+            return new int[0];
+        }
+        int[] generations = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                generations[count] = Integer.parseInt(name.substring(7, name.length() - suffix.length()));
+                count++;
+            }
+            catch (NumberFormatException error) {
+                //not a store file
+            }
+        }
+        generations = Arrays.copyOf(generations, count);
+        Arrays.sort(generations);
+        return generations;
+    }
+
+    private File file(int generation, String suffix) {
+        return new File(directory, "scores." + generation + suffix);
+    }
+
+    /**
+     * Delete all data and index files except the current ones.
+     * Deleting a file that is still mapped fails on Windows, it is deleted the next time the store is opened then.
+     */
+    private void deleteStaleFiles() {
+        File[] files = directory.listFiles(file -> {
+            String name = file.getName();
+            return name.startsWith("scores.") && !name.equals("scores.lock") && !name.equals(NAMES_FILE)
+                    && !file.equals(file(dataGeneration, DATA_SUFFIX))
+                    && !file.equals(file(indexGeneration, INDEX_SUFFIX));
+        });
+        if(files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Map an index file if it is complete and matches the current data file
+     * @param generation the generation of the index file
+     */
+    private void mapExistingIndex(int generation) throws IOException {
+        File indexFile = file(generation, INDEX_SUFFIX);
+        if(indexFile.length() < HEADER_BYTES) {
+            return;
+        }
+        MappedByteBuffer existing;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            existing = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        int existingCapacity = existing.getInt(4);
+        boolean valid = existing.getInt(0) == INDEX_MAGIC
+                && Integer.bitCount(existingCapacity) == 1
+                && existing.capacity() == HEADER_BYTES + (long) existingCapacity * SLOT_BYTES
+                && existing.getInt(12) == dataGeneration
+                && existing.getLong(16) == data.size();
+        if(valid) {
+            index = existing;
+            indexGeneration = generation;
+            capacity = existingCapacity;
+        }
+    }
+
+    /**
+     * Rebuild the index by scanning all records of the data file.
+     * A partially written record at the end of the file is removed.
+     * @param generation the generation of the rebuilt index
+     */
+    private void rebuildFromData(int generation) throws IOException {
+        long dataSize = data.size();
+        Map<Long,Long> offsets = new HashMap<>();
+        long deadBytes = 0;
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (offset + RECORD_HEADER_BYTES <= dataSize) {
+            header.clear();
+            readFully(data, header, offset);
+            long recordSize = 4L + header.getInt(0);
+            if(recordSize < RECORD_HEADER_BYTES || offset + recordSize > dataSize) {
+                break;
+            }
+            Long replaced = offsets.put(header.getLong(4), offset);
+            if(replaced != null) {
+                deadBytes += recordSize(data, replaced);
+            }
+            offset += recordSize;
+        }
+        data.truncate(offset);
+
+        int rebuiltCapacity = capacityFor(offsets.size());
+        MappedByteBuffer rebuilt = createIndex(file(generation, INDEX_SUFFIX), rebuiltCapacity, dataGeneration);
+        for (Map.Entry<Long,Long> entry : offsets.entrySet()) {
+            int slot = findSlot(rebuilt, rebuiltCapacity, entry.getKey());
+            rebuilt.putLong(slot, entry.getKey());
+            rebuilt.putLong(slot + 8, entry.getValue());
+        }
+        rebuilt.putInt(8, offsets.size());
+        rebuilt.putLong(16, offset);
+        rebuilt.putLong(24, deadBytes);
+        switchIndex(rebuilt, generation, rebuiltCapacity);
+    }
+
+    /**
+     * Move all entries into a new index file with the given capacity
+     */
+    private void rebuildIndex(int newCapacity) throws IOException {
+        int generation = indexGeneration + 1;
+        MappedByteBuffer rebuilt = createIndex(file(generation, INDEX_SUFFIX), newCapacity, dataGeneration);
+        for (int slot = HEADER_BYTES; slot < HEADER_BYTES + (long) capacity * SLOT_BYTES; slot += SLOT_BYTES) {
+            long key = index.getLong(slot);
+            if(key != 0) {
+                int newSlot = findSlot(rebuilt, newCapacity, key);
+                rebuilt.putLong(newSlot, key);
+                rebuilt.putLong(newSlot + 8, index.getLong(slot + 8));
+            }
+        }
+        rebuilt.putInt(8, index.getInt(8));
+        rebuilt.putLong(16, index.getLong(16));
+        rebuilt.putLong(24, index.getLong(24));
+        switchIndex(rebuilt, generation, newCapacity);
+    }
+
+    /**
+     * Complete a new index and use it instead of the current one, whose file is deleted afterwards
+     */
+    private void switchIndex(MappedByteBuffer next, int generation, int nextCapacity) {
+        next.putInt(0, INDEX_MAGIC);
+        next.force();
+        boolean replaced = index != null;
+        int previousGeneration = indexGeneration;
+        index = next;
+        indexGeneration = generation;
+        capacity = nextCapacity;
+        if(replaced) {
+            file(previousGeneration, INDEX_SUFFIX).delete();
+        }
+    }
+
+    private boolean needsCompaction() {
+        long deadBytes = index.getLong(24);
+        return index.getInt(8) > MAX_ENTRIES
+                || (deadBytes > MIN_COMPACTION_BYTES && deadBytes * 2 > index.getLong(16));
+    }
+
+    /**
+     * Start a background compaction of the data file, unless one is running already.
+     * If there are more than MAX_ENTRIES records, only the newest half of them is kept.
+     */
+    private void scheduleCompaction() {
+        if(compacting) {
+            return;
+        }
+        int size = index.getInt(8);
+        long[] offsets = new long[size];
+        int count = 0;
+        for (int slot = HEADER_BYTES; slot < HEADER_BYTES + (long) capacity * SLOT_BYTES; slot += SLOT_BYTES) {
+            if(index.getLong(slot) != 0) {
+                offsets[count++] = index.getLong(slot + 8);
+            }
+        }
+        Arrays.sort(offsets, 0, count);
+        int first = count > MAX_ENTRIES ? count - MAX_ENTRIES / 2 : 0;
+
+        compacting = true;
+        compactionExecutor.execute(new Compaction(data, index.getLong(16), Arrays.copyOfRange(offsets, first, count),
+                dataGeneration + 1));
+    }
+
+    /**
+     * Rewrite of the data file with the live records only. The records keep their order, so the newest records stay
+     * at the end of the file.
+     *
+     * The live records are copied without holding the lock of the store. Afterwards the records that were stored
+     * in the meantime are copied as well and the store switches to the new files.
+     */
+    private class Compaction implements Runnable {
+        private final FileChannel source;
+        private final long sourceLength;
+        private final long[] sourceOffsets;
+        private final int generation;
+        private final File tempFile;
+
+        private long[] keys;
+        private long[] offsets;
+        private int count;
+        private long length;
+
+        private Compaction(FileChannel source, long sourceLength, long[] sourceOffsets, int generation) {
+            this.source = source;
+            this.sourceLength = sourceLength;
+            this.sourceOffsets = sourceOffsets;
+            this.generation = generation;
+            this.tempFile = file(generation, DATA_SUFFIX + TEMP_SUFFIX);
+            keys = new long[sourceOffsets.length];
+            offsets = new long[sourceOffsets.length];
+        }
+
+        @Override
+        public void run() {
+            try (FileChannel target = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (long offset : sourceOffsets) {
+                    copy(offset, target);
+                }
+                storeLock.lock();
+                try {
+                    //the store was closed meanwhile
+                    if(data == source) {
+                        finish(target);
+                    }
+                }
+                finally {
+                    storeLock.unlock();
+                }
+            }
+            catch (IOException error) {
+                LOG.warn("Failed to compact the score store", error);
+            }
+            finally {
+                tempFile.delete();
+                storeLock.lock();
+                compacting = false;
+                storeLock.unlock();
+            }
+        }
+
+        /**
+         * Copy the records stored since the compaction started and switch to the compacted files
+         */
+        private void finish(FileChannel target) throws IOException {
+            long end = index.getLong(16);
+            for (long offset = sourceLength; offset < end; offset += copy(offset, target)) {
+                //records are stored back to back
+            }
+            target.force(false);
+            target.close();
+            File compactedFile = file(generation, DATA_SUFFIX);
+            //left over by an earlier compaction that failed after moving its file
+            Files.deleteIfExists(compactedFile.toPath());
+            Files.move(tempFile.toPath(), compactedFile.toPath());
+
+            int compactedCapacity = capacityFor(count);
+            int compactedGeneration = indexGeneration + 1;
+            MappedByteBuffer compacted = createIndex(file(compactedGeneration, INDEX_SUFFIX), compactedCapacity,
+                    generation);
+            int size = 0;
+            long deadBytes = 0;
+            for (int i = 0; i < count; i++) {
+                int slot = findSlot(compacted, compactedCapacity, keys[i]);
+                if(compacted.getLong(slot) == 0) {
+                    compacted.putLong(slot, keys[i]);
+                    size++;
+                }
+                else {
+                    deadBytes += recordLength(compacted.getLong(slot + 8));
+                }
+                compacted.putLong(slot + 8, offsets[i]);
+            }
+            compacted.putInt(8, size);
+            compacted.putLong(16, length);
+            compacted.putLong(24, deadBytes);
+
+            int previousGeneration = dataGeneration;
+            data.close();
+            data = FileChannel.open(compactedFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            dataGeneration = generation;
+            switchIndex(compacted, compactedGeneration, compactedCapacity);
+            file(previousGeneration, DATA_SUFFIX).delete();
+        }
+
+        /**
+         * Append a record of the source file to the target file
+         * @return the size of the record
+         */
+        private long copy(long offset, FileChannel target) throws IOException {
+            ByteBuffer record = ByteBuffer.allocate((int) recordSize(source, offset));
+            readFully(source, record, offset);
+            record.flip();
+            if(count == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(16, count * 2));
+                offsets = Arrays.copyOf(offsets, Math.max(16, count * 2));
+            }
+            keys[count] = record.getLong(4);
+            offsets[count] = length;
+            count++;
+            while (record.hasRemaining()) {
+                length += target.write(record);
+            }
+            return record.limit();
+        }
+
+        /**
+         * Get the size of a copied record from the offset of its successor
+         */
+        private long recordLength(long offset) {
+            int i = Arrays.binarySearch(offsets, 0, count, offset);
+            return (i + 1 < count ? offsets[i + 1] : length) - offset;
+        }
+    }
+
+    /**
+     * Create and map a new empty index file, its magic is written by switchIndex once it is complete
+     * @param file the index file
+     * @param slots the number of slots, must be a power of two
+     * @param dataGeneration the generation of the data file the index belongs to
+     * @return the mapped index
+     */
+    private static MappedByteBuffer createIndex(File file, int slots, int dataGeneration) throws IOException {
+        MappedByteBuffer created;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            created = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) slots * SLOT_BYTES);
+        }
+        created.putInt(4, slots);
+        created.putInt(12, dataGeneration);
+        return created;
+    }
+
+    /**
+     * Find the slot of a key, or the empty slot the key would be inserted in
+     * @return the byte position of the slot within the index
+     */
+    private static int findSlot(ByteBuffer index, int slots, long key) {
+        int mask = slots - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (true) {
+            int position = HEADER_BYTES + slot * SLOT_BYTES;
+            long slotKey = index.getLong(position);
+            if(slotKey == 0 || slotKey == key) {
+                return position;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int capacityFor(int entries) {
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(entries, 1) * 2) * 2);
+    }
+
+    private ByteBuffer createRecord(long key, ReadabilityResult result) throws IOException {
+        Map<String,Double> metrics = result.getMetrics();
+        int metricCount = metrics == null ? 0 : metrics.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + metricCount * METRIC_BYTES);
+        record.putInt(record.capacity() - 4);
+        record.putLong(key);
+        record.putDouble(result.getReadability());
+        record.putInt(metrics == null ? -1 : metricCount);
+        if(metrics != null) {
+            for (Map.Entry<String,Double> metric : metrics.entrySet()) {
+                record.putInt(metricId(metric.getKey()));
+                record.putDouble(metric.getValue() == null ? Double.NaN : metric.getValue());
+            }
+        }
+        record.flip();
+        return record;
+    }
+
+    private ReadabilityResult readRecord(long offset, long key) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(data, header, offset);
+        if(header.getLong(4) != key) {
+            throw new IOException("Score store index does not match data file at offset " + offset);
+        }
+        double readability = header.getDouble(12);
+        int metricCount = header.getInt(20);
+        if(metricCount < 0) {
+            return ReadabilityResult.restore(readability, null);
+        }
+
+        ByteBuffer values = ByteBuffer.allocate(metricCount * METRIC_BYTES);
+        readFully(data, values, offset + RECORD_HEADER_BYTES);
+        Map<String,Double> metrics = new HashMap<>();
+        for (int i = 0; i < metricCount; i++) {
+            int id = values.getInt(i * METRIC_BYTES);
+            if(id < 0 || id >= metricNames.size()) {
+                throw new IOException("Unknown metric name id " + id + " in score store record at offset " + offset);
+            }
+            double value = values.getDouble(i * METRIC_BYTES + 4);
+            if(!Double.isNaN(value)) {
+                metrics.put(metricNames.get(id), value);
+            }
+        }
+        return ReadabilityResult.restore(readability, metrics);
+    }
+
+    private static long recordSize(FileChannel channel, long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, offset);
+        return 4L + length.getInt(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of score store data file");
+            }
+        }
+    }
+
+    /**
+     * The store key of a code snippet: a 64 bit hash of the code, seeded with the model version
+     */
+    private long key(String code) {
+        long key = CodeHash.of(code, versionSeed);
+        return key == 0 ? 1 : key;
+    }
+}
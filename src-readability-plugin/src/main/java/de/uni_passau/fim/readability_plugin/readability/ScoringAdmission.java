@@ -0,0 +1,248 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Application wide admission control for the rating work of all open projects.
+ *
+ * Every project rates on its own ScoringExecutor, but all projects rate with the same pool of RSE worker processes
+ * (see PooledReadabilityApi). Before a task of an executor runs, it must be admitted here: at most "capacity" tasks
+ * of all projects run at the same time, no matter how many projects are open. The capacity is the number of workers,
+ * so an admitted task finds an idle worker instead of queuing for one within the pool, where the weights of the
+ * projects would not count.
+ *
+ * If tasks of several projects wait for admission, the free capacity is shared by weighted fair queuing:
+ * every project (tenant) has a virtual time that advances by 1/weight for every admitted task, and the waiting
+ * tenant with the smallest virtual time is admitted next. A tenant with weight 2 therefore gets twice the capacity
+ * of a tenant with weight 1 while both are busy. Tenants that were idle continue at the current virtual time,
+ * so they can not save up capacity while they do not rate anything.
+ *
+ * Waiting tasks block on a ReentrantLock condition instead of a monitor, so tasks running on virtual threads do not
+ * pin their carrier thread while they wait for admission.
+ */
+public class ScoringAdmission {
+
+    private static ScoringAdmission instance;
+
+    private final int capacity;
+    private final List<Tenant> tenants = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int running;
+    private double virtualTime;
+
+    /**
+     * ScoringAdmission is implemented as singleton, as the capacity is shared by all projects.
+     * The capacity is the parallelism of the RSE worker pool shared by all projects.
+     * @return the singleton instance of the ScoringAdmission
+     */
+    public static synchronized ScoringAdmission getInstance() {
+        if(instance == null) {
+            instance = new ScoringAdmission(Math.max(1, PooledReadabilityApi.getInstance().getParallelism()));
+        }
+        return instance;
+    }
+
+    /**
+     * Create a new admission control
+     * @param capacity the maximum number of tasks of all tenants running at the same time
+     */
+    ScoringAdmission(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Register a new tenant sharing the capacity
+     * @param name the name of the tenant, used in the statistics
+     * @param weight the share of the tenant, relative to the weights of the other tenants
+     * @param queuedTasks provides the number of tasks the tenant queued before asking for admission
+     * @return the tenant, which must be unregistered once it does not rate anymore
+     */
+    public Tenant register(String name, int weight, IntSupplier queuedTasks) {
+        lock.lock();
+        try {
+            Tenant tenant = new Tenant(name, Math.max(1, weight), queuedTasks);
+            tenants.add(tenant);
+            return tenant;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the maximum number of tasks running at the same time
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of tasks currently running
+     * @return the number of admitted tasks
+     */
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of tasks waiting to run, per tenant
+     * @return the queue depths by tenant name
+     */
+    public Map<String,Integer> getQueueDepths() {
+        lock.lock();
+        try {
+            Map<String,Integer> queueDepths = new LinkedHashMap<>();
+            for (Tenant tenant : tenants) {
+                queueDepths.merge(tenant.name, tenant.getQueueDepth(), Integer::sum);
+            }
+            return queueDepths;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Summarize the current state of the admission control
+     * @return the statistics as string
+     */
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            StringBuilder summary = new StringBuilder(String.format("scoring admission: %d/%d running", running, capacity));
+            for (Tenant tenant : tenants) {
+                summary.append(String.format(", %s (weight %d): %d running, %d queued",
+                        tenant.name, tenant.weight, tenant.running, tenant.getQueueDepth()));
+            }
+            return summary.toString();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the tenant whose waiting task should be admitted next
+     * @return the waiting tenant with the smallest virtual time or null if no task is waiting
+     */
+    private Tenant nextTenant() {
+        Tenant next = null;
+        for (Tenant tenant : tenants) {
+            if(tenant.waiting > 0 && (next == null || tenant.virtualTime < next.virtualTime)) {
+                next = tenant;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * A project sharing the capacity of the admission control
+     */
+    public class Tenant {
+        private final String name;
+        private final int weight;
+        private final IntSupplier queuedTasks;
+        private double virtualTime;
+        private int waiting;
+        private int running;
+
+        private Tenant(String name, int weight, IntSupplier queuedTasks) {
+            this.name = name;
+            this.weight = weight;
+            this.queuedTasks = queuedTasks;
+        }
+
+        /**
+         * Wait until a task of this tenant may run
+         * @throws InterruptedException if the thread got interrupted while waiting, the task must not run then
+         */
+        public void acquire() throws InterruptedException {
+            lock.lock();
+            try {
+                if(waiting == 0 && running == 0) {
+                    //an idle tenant must not get the capacity it did not use
+                    virtualTime = Math.max(virtualTime, ScoringAdmission.this.virtualTime);
+                }
+                waiting++;
+                try {
+                    while (ScoringAdmission.this.running >= capacity || nextTenant() != this) {
+                        changed.await();
+                    }
+                }
+                catch (InterruptedException error) {
+                    changed.signalAll();
+                    throw error;
+                }
+                finally {
+                    waiting--;
+                }
+                ScoringAdmission.this.virtualTime = virtualTime;
+                virtualTime += 1.0 / weight;
+                running++;
+                ScoringAdmission.this.running++;
+                changed.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Free the capacity of a task that was admitted by acquire
+         */
+        public void release() {
+            lock.lock();
+            try {
+                running--;
+                ScoringAdmission.this.running--;
+                changed.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Remove the tenant from the admission control (e.g. if the project is closed)
+         */
+        public void unregister() {
+            lock.lock();
+            try {
+                tenants.remove(this);
+                changed.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Get the number of tasks of the tenant that wait to run
+         * @return the tasks queued by the tenant and the tasks waiting for admission
+         */
+        public int getQueueDepth() {
+            lock.lock();
+            try {
+                return queuedTasks.getAsInt() + waiting;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
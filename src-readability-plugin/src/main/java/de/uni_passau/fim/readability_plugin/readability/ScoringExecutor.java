@@ -0,0 +1,393 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Executor for all rating work of a project, so the number of concurrent model runs stays bounded
+ * no matter how many files are analysed or how many readability trees are built at the same time.
+ *
+ * At most "parallelism" tasks run at the same time and at most "queueCapacity" further tasks wait.
+ * Submitting a task while the queue is full blocks the submitting thread until a slot is free,
+ * so producers are slowed down instead of piling up work.
+ *
+ * Waiting tasks are started by priority (lower values first, then in submission order). The priority of a task
+ * is provided by a supplier, which is asked again for all waiting tasks whenever reprioritize is called
+ * (e.g. after the developer scrolled to other methods). Tasks submitted without a priority get DEFAULT_PRIORITY.
+ *
+ * The tasks either run on a pool of daemon platform threads or on virtual threads (see VirtualThreads). Rating tasks
+ * spend most of their time blocked on model processes, so virtual threads avoid a platform thread stack per running
+ * rating. In virtual thread mode there is no pool: every task that is started gets a new virtual thread, and a
+ * semaphore with "parallelism" permits is the only bound of the running tasks. The path of a task (admission,
+ * model runs, score store) blocks on java.util.concurrent locks only, so waiting tasks do not pin carrier threads.
+ * In both modes at most "parallelism" tasks run at the same time.
+ *
+ * If the executor is registered at the ScoringAdmission, every task must additionally be admitted there before it
+ * runs, so the executors of all open projects share a global capacity.
+ */
+public class ScoringExecutor implements Executor {
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private final ThreadPoolExecutor executor;
+    private final PriorityBlockingQueue<Runnable> queue;
+    private final ThreadFactory virtualThreadFactory;
+    private final ResizableSemaphore virtualThreadPermits;
+    private final Set<Thread> virtualThreads = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+    private final Semaphore slots;
+    private volatile int parallelism;
+    private final AtomicLong submittedTasks = new AtomicLong();
+    private final ScoringAdmission.Tenant tenant;
+
+    /**
+     * Create a new executor, its threads are started on demand
+     * @param name the name of the executor threads
+     * @param parallelism the maximum number of concurrently running tasks
+     * @param queueCapacity the maximum number of waiting tasks
+     */
+    public ScoringExecutor(String name, int parallelism, int queueCapacity) {
+        this(name, parallelism, queueCapacity, false);
+    }
+
+    /**
+     * Create a new executor, its threads are started on demand
+     * @param name the name of the executor threads
+     * @param parallelism the maximum number of concurrently running tasks
+     * @param queueCapacity the maximum number of waiting tasks
+     * @param virtualThreads whether the tasks should run on virtual threads instead of platform threads
+     * @throws UnsupportedOperationException if virtual threads are requested but not supported by the runtime
+     */
+    public ScoringExecutor(String name, int parallelism, int queueCapacity, boolean virtualThreads) {
+        this(name, parallelism, queueCapacity, virtualThreads, null, 1);
+    }
+
+    /**
+     * Create a new executor, its threads are started on demand
+     * @param name the name of the executor threads and of its tenant in the admission control
+     * @param parallelism the maximum number of concurrently running tasks
+     * @param queueCapacity the maximum number of waiting tasks
+     * @param virtualThreads whether the tasks should run on virtual threads instead of platform threads
+     * @param admission the admission control every task must be admitted by, or null if the tasks may run
+     *                  without admission
+     * @param weight the share of the admission capacity of this executor, relative to the other executors
+     * @throws UnsupportedOperationException if virtual threads are requested but not supported by the runtime
+     */
+    public ScoringExecutor(String name, int parallelism, int queueCapacity, boolean virtualThreads,
+                           ScoringAdmission admission, int weight) {
+        this.parallelism = parallelism;
+        slots = new Semaphore(parallelism + queueCapacity);
+        queue = new PriorityBlockingQueue<>(16, ScoringExecutor::compareTasks);
+        if(virtualThreads) {
+            executor = null;
+            virtualThreadFactory = VirtualThreads.factory(name + " ");
+            virtualThreadPermits = new ResizableSemaphore(parallelism);
+        }
+        else {
+            executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS, queue,
+                    platformThreads(name));
+            executor.allowCoreThreadTimeOut(true);
+            virtualThreadFactory = null;
+            virtualThreadPermits = null;
+        }
+        tenant = admission == null ? null : admission.register(name, weight, this::getQueuedCount);
+    }
+
+    private static ThreadFactory platformThreads(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Run a task on the executor, waiting for a free slot if the queue is full
+     * @param task the task to run
+     * @throws RejectedExecutionException if the executor was shut down, or the thread got interrupted while waiting
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(task, () -> DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Run a task on the executor, waiting for a free slot if the queue is full
+     * @param task the task to run
+     * @param priority provides the current priority of the task, lower values are started first
+     * @throws RejectedExecutionException if the executor was shut down, or the thread got interrupted while waiting
+     */
+    public void execute(Runnable task, IntSupplier priority) {
+        try {
+            slots.acquire();
+        }
+        catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Got interrupted while waiting for a free scoring slot", error);
+        }
+        try {
+            SlotTask slotTask = new SlotTask(task, priority, submittedTasks.incrementAndGet());
+            if(executor != null) {
+                executor.execute(slotTask);
+            }
+            else {
+                if(shutdown) {
+                    throw new RejectedExecutionException("Scoring executor was shut down");
+                }
+                queue.add(slotTask);
+                startVirtualThreads();
+            }
+        }
+        catch (RejectedExecutionException error) {
+            slots.release();
+            throw error;
+        }
+    }
+
+    /**
+     * Start a virtual thread for every waiting task (highest priority first) as long as there are free permits.
+     * Called whenever a task is queued or a permit is released, so no task waits while a permit is free.
+     */
+    private void startVirtualThreads() {
+        while (!shutdown && !queue.isEmpty() && virtualThreadPermits.tryAcquire()) {
+            Runnable next = queue.poll();
+            if(next == null) {
+                //another thread started the task first
+                virtualThreadPermits.release();
+                continue;
+            }
+            Thread thread = virtualThreadFactory.newThread(() -> {
+                try {
+                    next.run();
+                }
+                finally {
+                    virtualThreads.remove(Thread.currentThread());
+                    virtualThreadPermits.release();
+                    startVirtualThreads();
+                }
+            });
+            virtualThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Run a task on the executor, waiting for a free slot if the queue is full
+     * @param task the task to run
+     * @return the future of the task result
+     * @param <T> the type of the task result
+     */
+    public <T> FutureTask<T> submit(Callable<T> task) {
+        return submit(task, () -> DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Run a task on the executor, waiting for a free slot if the queue is full
+     * @param task the task to run
+     * @param priority provides the current priority of the task, lower values are started first
+     * @return the future of the task result
+     * @param <T> the type of the task result
+     */
+    public <T> FutureTask<T> submit(Callable<T> task, IntSupplier priority) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(future, priority);
+        return future;
+    }
+
+    /**
+     * Ask all waiting tasks for their current priority and reorder them accordingly
+     */
+    public void reprioritize() {
+        synchronized (queue) {
+            List<Runnable> waitingTasks = new ArrayList<>();
+            queue.drainTo(waitingTasks);
+            for (Runnable waitingTask : waitingTasks) {
+                ((SlotTask) waitingTask).updatePriority();
+            }
+            queue.addAll(waitingTasks);
+        }
+        if(executor == null) {
+            startVirtualThreads();
+        }
+    }
+
+    private static int compareTasks(Runnable first, Runnable second) {
+        SlotTask firstTask = (SlotTask) first;
+        SlotTask secondTask = (SlotTask) second;
+        if(firstTask.priority != secondTask.priority) {
+            return Integer.compare(firstTask.priority, secondTask.priority);
+        }
+        return Long.compare(firstTask.sequence, secondTask.sequence);
+    }
+
+    /**
+     * Change the maximum number of concurrently running tasks (e.g. if the tasks use a model that rates less
+     * snippets at a time). Running tasks are not affected, fewer waiting tasks are started if the parallelism shrinks.
+     * @param parallelism the new maximum number of concurrently running tasks
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if(parallelism == this.parallelism) {
+            return;
+        }
+        if(executor == null) {
+            if(parallelism > this.parallelism) {
+                virtualThreadPermits.release(parallelism - this.parallelism);
+            }
+            else {
+                virtualThreadPermits.reducePermits(this.parallelism - parallelism);
+            }
+        }
+        else if(parallelism > this.parallelism) {
+            executor.setMaximumPoolSize(parallelism);
+            executor.setCorePoolSize(parallelism);
+        }
+        else {
+            executor.setCorePoolSize(parallelism);
+            executor.setMaximumPoolSize(parallelism);
+        }
+        this.parallelism = parallelism;
+        if(executor == null) {
+            startVirtualThreads();
+        }
+    }
+
+    /**
+     * Get the maximum number of concurrently running tasks
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Get the number of tasks that are currently running
+     * @return the number of running tasks
+     */
+    public int getActiveCount() {
+        return executor == null ? virtualThreads.size() : executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of tasks waiting for a free thread
+     * @return the number of waiting tasks
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Interrupt all running tasks and cancel the waiting tasks
+     */
+    public void shutdown() {
+        List<Runnable> waitingTasks = new ArrayList<>();
+        if(executor == null) {
+            shutdown = true;
+            queue.drainTo(waitingTasks);
+            for (Thread thread : virtualThreads) {
+                thread.interrupt();
+            }
+        }
+        else {
+            waitingTasks.addAll(executor.shutdownNow());
+        }
+        for (Runnable waitingTask : waitingTasks) {
+            ((SlotTask) waitingTask).cancel();
+            slots.release();
+        }
+        if(tenant != null) {
+            tenant.unregister();
+        }
+    }
+
+    /**
+     * Holds the priority of a task and frees its slot once it finished
+     */
+    private class SlotTask implements Runnable {
+        private final Runnable task;
+        private final IntSupplier prioritySupplier;
+        private final long sequence;
+        private int priority;
+
+        private SlotTask(Runnable task, IntSupplier prioritySupplier, long sequence) {
+            this.task = task;
+            this.prioritySupplier = prioritySupplier;
+            this.sequence = sequence;
+            updatePriority();
+        }
+
+        private void updatePriority() {
+            priority = prioritySupplier.getAsInt();
+        }
+
+        private boolean isCancelled() {
+            return task instanceof Future && ((Future<?>) task).isDone();
+        }
+
+        private void cancel() {
+            if(task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if(tenant == null) {
+                    task.run();
+                }
+                else if(!isCancelled()) {
+                    runAdmitted();
+                }
+            }
+            finally {
+                slots.release();
+            }
+        }
+
+        private void runAdmitted() {
+            try {
+                tenant.acquire();
+            }
+            catch (InterruptedException shutdown) {
+                cancel();
+                return;
+            }
+            try {
+                task.run();
+            }
+            finally {
+                tenant.release();
+            }
+        }
+    }
+
+    /**
+     * Semaphore whose number of permits can be reduced while permits are held
+     */
+    private static class ResizableSemaphore extends Semaphore {
+        private ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
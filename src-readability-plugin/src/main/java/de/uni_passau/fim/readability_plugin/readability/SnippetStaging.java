@@ -0,0 +1,164 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The RSE.jar can only rate code that is stored in java files.
+ * This class provides the staging area the code snippets are written to before they are passed to the model.
+ *
+ * If the operating system provides a memory backed file system (/dev/shm) it is used as staging area,
+ * so the snippet files never reach the disk. Otherwise, the given fallback directory is used.
+ * Every JVM stages in its own sub directory. Directories left behind by JVMs that are no longer running are removed
+ * when a new staging area is created.
+ *
+ * Staged snippets are returned as StagedSnippets object, that deletes all staged files when it is closed.
+ * It should therefore always be used within a try-with-resources statement.
+ */
+public class SnippetStaging {
+
+    private static final String STAGING_PREFIX = "readability_plugin_staging_";
+    private static final File MEMORY_BACKED_DIR = new File("/dev/shm");
+
+    private final File stagingDir;
+    private final boolean memoryBacked;
+
+    /**
+     * Create the staging area of the current JVM
+     * @param fallbackDir the directory to stage in if no memory backed file system is available
+     * @throws IOException if the staging directory could not be created
+     */
+    public SnippetStaging(File fallbackDir) throws IOException {
+        memoryBacked = MEMORY_BACKED_DIR.isDirectory() && MEMORY_BACKED_DIR.canWrite();
+        File baseDir = memoryBacked ? MEMORY_BACKED_DIR : fallbackDir;
+
+        removeOrphanedStagingDirs(baseDir);
+
+        stagingDir = new File(baseDir, STAGING_PREFIX + ProcessHandle.current().pid());
+        Files.createDirectories(stagingDir.toPath());
+        stagingDir.deleteOnExit();
+    }
+
+    /**
+     * Returns true if the snippets are staged in memory
+     * @return whether the staging area is memory backed or not
+     */
+    public boolean isMemoryBacked() {
+        return memoryBacked;
+    }
+
+    /**
+     * Write the given (already wrapped) java classes into a new batch directory of the staging area.
+     * The files are named by the index of the code (see batchFileName).
+     *
+     * @param wrappedCodes the java classes to stage
+     * @return the staged snippets, which must be closed after they were rated
+     * @throws IOException if the snippets could not be written
+     */
+    public StagedSnippets stage(List<String> wrappedCodes) throws IOException {
+        StagedSnippets staged = new StagedSnippets(Files.createTempDirectory(stagingDir.toPath(), "batch").toFile());
+        try {
+            for (int i = 0; i < wrappedCodes.size(); i++) {
+                File snippetFile = new File(staged.directory, batchFileName(i));
+                Files.write(snippetFile.toPath(), wrappedCodes.get(i).getBytes(StandardCharsets.UTF_8));
+                staged.paths.add(snippetFile.getAbsolutePath());
+            }
+        }
+        catch (IOException error) {
+            staged.close();
+            throw error;
+        }
+        return staged;
+    }
+
+    /**
+     * Provide the name of the file the snippet with a given index is written to within a batch directory.
+     * @param index the index of the snippet within the batch
+     * @return the file name
+     */
+    public static String batchFileName(int index) {
+        return "snippet_" + index + ".java";
+    }
+
+    /**
+     * Delete the staging directories of JVMs that are not running anymore
+     * (for example because the IDE or a worker process crashed).
+     * @param baseDir the directory containing the staging directories
+     */
+    private static void removeOrphanedStagingDirs(File baseDir) {
+        File[] stagingDirs = baseDir.listFiles((dir, name) -> name.startsWith(STAGING_PREFIX));
+        if (stagingDirs == null) {
+            return;
+        }
+        for (File orphan : stagingDirs) {
+            Optional<ProcessHandle> owner;
+            try {
+                owner = ProcessHandle.of(Long.parseLong(orphan.getName().substring(STAGING_PREFIX.length())));
+            }
+            catch (NumberFormatException error) {
+                continue;
+            }
+            if (owner.isEmpty() || !owner.get().isAlive()) {
+                deleteRecursively(orphan);
+            }
+        }
+    }
+
+    /**
+     * Delete a directory including all its content
+     * @param file the directory (or file) to delete
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * A batch of code snippets written to the staging area.
+     * Closing the object deletes the snippet files.
+     */
+    public static class StagedSnippets implements AutoCloseable {
+        private final File directory;
+        private final List<String> paths;
+
+        private StagedSnippets(File directory) {
+            this.directory = directory;
+            this.paths = new ArrayList<>();
+        }
+
+        /**
+         * Get the directory containing the snippet files
+         * @return the batch directory
+         */
+        public File getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Get the absolute paths of the snippet files in the order of the staged codes
+         * @return the snippet file paths
+         */
+        public List<String> getPaths() {
+            return Collections.unmodifiableList(paths);
+        }
+
+        /**
+         * Delete all snippet files and the batch directory
+         */
+        @Override
+        public void close() {
+            deleteRecursively(directory);
+        }
+    }
+}
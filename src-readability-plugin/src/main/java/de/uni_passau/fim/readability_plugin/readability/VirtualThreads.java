@@ -0,0 +1,69 @@
+package de.uni_passau.fim.readability_plugin.readability;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Provides the virtual threads of Java 21 while the plugin is still compiled for Java 17.
+ *
+ * Depending on the IDE version the plugin runs on a Java 17 or a Java 21 runtime, so the virtual thread api is
+ * looked up once when this class is loaded. If the runtime does not support virtual threads, isAvailable returns
+ * false and the callers must use platform threads instead.
+ */
+public final class VirtualThreads {
+
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method factory;
+
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method factoryMethod = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            nameMethod = builder.getMethod("name", String.class, long.class);
+            factoryMethod = builder.getMethod("factory");
+        }
+        catch (ClassNotFoundException | NoSuchMethodException unsupported) {
+            //the runtime is older than Java 21
+        }
+        ofVirtual = ofVirtualMethod;
+        name = nameMethod;
+        factory = factoryMethod;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Returns true if the runtime of the IDE supports virtual threads
+     * @return whether virtual threads can be created or not
+     */
+    public static boolean isAvailable() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Create a factory for virtual threads
+     * @param prefix the name prefix of the threads, followed by a counter starting at 1
+     * @return the thread factory
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21, running on Java "
+                    + Runtime.version().feature());
+        }
+        try {
+            Object builder = ofVirtual.invoke(null);
+            builder = name.invoke(builder, prefix, 1L);
+            return (ThreadFactory) factory.invoke(builder);
+        }
+        catch (IllegalAccessException | InvocationTargetException error) {
+            throw new UnsupportedOperationException("Failed to create virtual thread factory", error);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package de.uni_passau.fim.readability_plugin.services;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import de.uni_passau.fim.readability_plugin.readability.BoundedCache;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityCaches;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityProcessException;
+import de.uni_passau.fim.readability_plugin.readability.ScoringAdmission;
+import de.uni_passau.fim.readability_plugin.readability.ScoringExecutor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the readability analysis of java files, so files that change quickly (e.g. autosave while typing)
+ * are not re-analysed for every single change.
+ *
+ * Analysis requests are debounced per file: a request only starts an analysis if no newer request for the same
+ * file arrived within the debounce delay. An analysis that is still running when a newer analysis of the same file
+ * starts is cancelled by the ReadabilityService, and results are only painted if the document did not change
+ * while it was analysed (latest wins).
+ *
+ * If debug logging is enabled for this class (Help | Diagnostic Tools | Debug Log Settings), the statistics of the
+ * scheduler, the scoring executor of the project, the ScoringAdmission and the ReadabilityCaches are logged every
+ * STATISTICS_MINUTES minutes.
+ */
+@Service(Service.Level.PROJECT)
+public final class AnalysisScheduler implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(AnalysisScheduler.class);
+
+    private static final long DEBOUNCE_MILLIS = 500;
+    private static final long STATISTICS_MINUTES = 1;
+
+    private final Project project;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentHashMap<String,PendingAnalysis> pendingAnalyses = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestedAnalyses = new AtomicLong();
+    private final AtomicLong startedAnalyses = new AtomicLong();
+
+    AnalysisScheduler(Project project) {
+        this.project = project;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Readability analysis scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::logStatistics, STATISTICS_MINUTES, STATISTICS_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Request the analysis of a changed file. The analysis starts after the debounce delay,
+     * unless another change of the file is requested in the meantime.
+     * @param file the changed java file
+     */
+    public void schedule(VirtualFile file) {
+        schedule(file, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Request the analysis of a file without delay (e.g. if it was just opened).
+     * Pending requests of the file are replaced by this request.
+     * @param file the java file to analyse
+     */
+    public void scheduleNow(VirtualFile file) {
+        schedule(file, 0);
+    }
+
+    private void schedule(VirtualFile file, long delayMillis) {
+        if(executor.isShutdown()) {
+            return;
+        }
+        requestedAnalyses.incrementAndGet();
+        String path = file.getPath();
+        pendingAnalyses.compute(path, (key, pending) -> {
+            if(pending != null) {
+                pending.future.cancel(false);
+            }
+            PendingAnalysis analysis = new PendingAnalysis();
+            //only the latest request of a file is still registered when its delay is over
+            analysis.future = executor.schedule(() -> {
+                if(pendingAnalyses.remove(path, analysis)) {
+                    analyse(file);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            return analysis;
+        });
+    }
+
+    /**
+     * Drop the pending request of a file and cancel its running analysis (e.g. because the file was closed)
+     * @param file the java file
+     */
+    public void cancel(VirtualFile file) {
+        PendingAnalysis pending = pendingAnalyses.remove(file.getPath());
+        if(pending != null) {
+            pending.future.cancel(false);
+        }
+        if(!project.isDisposed()) {
+            project.getService(ReadabilityService.class).cancelAnalysis(file);
+        }
+    }
+
+    private void analyse(VirtualFile file) {
+        if(project.isDisposed() || !file.isValid()) {
+            return;
+        }
+        startedAnalyses.incrementAndGet();
+        try {
+            project.getService(ReadabilityService.class).updateReadability(file);
+        }
+        catch (ReadabilityProcessException error) {
+            System.err.println("Failed to process file: " + file.getPath());
+            System.err.println(error);
+        }
+    }
+
+    /**
+     * Get the number of analysis requests since the project was opened
+     * @return the number of requests
+     */
+    public long getRequestedCount() {
+        return requestedAnalyses.get();
+    }
+
+    /**
+     * Get the number of analyses that were actually started since the project was opened.
+     * The difference to the number of requests is the number of analyses saved by debouncing.
+     * @return the number of started analyses
+     */
+    public long getStartedCount() {
+        return startedAnalyses.get();
+    }
+
+    /**
+     * Log the statistics of the analysis and rating components as debug message
+     */
+    private void logStatistics() {
+        if(!LOG.isDebugEnabled() || project.isDisposed()) {
+            return;
+        }
+        ScoringExecutor scoringExecutor = project.getService(ReadabilityService.class).getScoringExecutor();
+        StringBuilder statistics = new StringBuilder(String.format(
+                "Readability statistics of %s: %d analyses requested, %d started; scoring executor: %d/%d running, %d queued; %s",
+                project.getName(), getRequestedCount(), getStartedCount(), scoringExecutor.getActiveCount(),
+                scoringExecutor.getParallelism(), scoringExecutor.getQueuedCount(), ScoringAdmission.getInstance()));
+        for (BoundedCache<?> cache : ReadabilityCaches.getInstance().getCaches()) {
+            statistics.append("; ").append(cache);
+        }
+        LOG.debug(statistics.toString());
+    }
+
+    /**
+     * Drops all pending requests if the project is closed
+     */
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+        pendingAnalyses.clear();
+    }
+
+    private static class PendingAnalysis {
+        private volatile ScheduledFuture<?> future;
+    }
+}
@@ -0,0 +1,345 @@
+package de.uni_passau.fim.readability_plugin.services;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import de.uni_passau.fim.readability_plugin.dialogues.ProjectReportDialogue;
+import de.uni_passau.fim.readability_plugin.java_parsing.JavaFileParser;
+import de.uni_passau.fim.readability_plugin.java_parsing.JavaParseTree;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityReport;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityResult;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rates all java methods of directories, modules or the whole project and summarizes them in a ReadabilityReport.
+ *
+ * The files are streamed through three stages, so even projects with tens of thousands of methods are analysed
+ * in constant memory:
+ * 1. parse: the directories are walked one at a time and the java files found are parsed one after another,
+ *    listing a directory and parsing a file each run in their own non-blocking read action (which is restarted
+ *    instead of blocking the ui if a write action is requested). Only the code and the psi element of the methods
+ *    are kept.
+ * 2. score: the methods are collected in batches, every batch is rated on the scoring executor of the project
+ *    (see ReadabilityService.rateCode, so cached and stored results are reused). Batches of the bulk analysis
+ *    have the lowest priority, so the methods of the open editors are still rated first.
+ * 3. aggregate: the results of every finished batch are added to the report and dropped afterwards.
+ *
+ * At most MAX_BATCHES_IN_FLIGHT batches are parsed but not yet aggregated; parsing waits for the scoring if it
+ * is that far ahead (backpressure).
+ */
+@Service(Service.Level.PROJECT)
+public final class ProjectAnalysisService {
+
+    private static final int METHODS_PER_BATCH = 32;
+    private static final int MAX_BATCHES_IN_FLIGHT = 8;
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    private final Project project;
+
+    ProjectAnalysisService(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Rate all java methods in the given files and directories in the background and display the report
+     * in the tool window of the plugin
+     * @param roots the files and directories to analyse, directories are analysed recursively
+     */
+    public void analyse(List<VirtualFile> roots) {
+        Task.Backgroundable task = new Task.Backgroundable(project, "Analysing readability", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                ReadabilityReport report = new Analysis(indicator).run(roots);
+                SwingUtilities.invokeLater(() -> {
+                    if(!project.isDisposed()) {
+                        new ProjectReportDialogue(project).showReport(report);
+                    }
+                });
+            }
+        };
+        ProgressManager.getInstance().run(task);
+    }
+
+    /**
+     * A single run of the parse, score and aggregate pipeline
+     */
+    private class Analysis {
+        private final ProgressIndicator indicator;
+        private final ReadabilityService readabilityService = project.getService(ReadabilityService.class);
+        private final ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+        private final ReadabilityReport report = new ReadabilityReport();
+        private final BlockingQueue<Integer> finishedBatches = new LinkedBlockingQueue<>();
+        private final Map<Integer,ScoredBatch> batchesInFlight = new HashMap<>();
+        private int batchCount;
+
+        private Analysis(ProgressIndicator indicator) {
+            this.indicator = indicator;
+        }
+
+        /**
+         * Run the pipeline for the java files within the given files and directories
+         * @param roots the files and directories to analyse, each java file is analysed only once
+         * @return the report of the analysed methods
+         */
+        private ReadabilityReport run(List<VirtualFile> roots) {
+            indicator.setIndeterminate(false);
+            try {
+                Deque<VirtualFile> directories = new ArrayDeque<>();
+                Deque<VirtualFile> javaFiles = new ArrayDeque<>();
+                Set<VirtualFile> visited = new HashSet<>();
+                enqueue(list(() -> roots.toArray(VirtualFile.EMPTY_ARRAY)), directories, javaFiles, visited);
+
+                List<MethodSnippet> batch = new ArrayList<>();
+                int parsedFiles = 0;
+                while (!javaFiles.isEmpty() || !directories.isEmpty()) {
+                    indicator.checkCanceled();
+                    if(javaFiles.isEmpty()) {
+                        VirtualFile directory = directories.pop();
+                        indicator.setText2(directory.getPresentableUrl());
+                        enqueue(list(directory::getChildren), directories, javaFiles, visited);
+                        continue;
+                    }
+                    VirtualFile file = javaFiles.poll();
+                    indicator.setText2(file.getPresentableUrl());
+                    //the total is not known before the walk is finished, so the fraction is based on the files found
+                    indicator.setFraction((double) parsedFiles / (parsedFiles + javaFiles.size() + 1));
+                    parsedFiles++;
+
+                    List<MethodSnippet> methods = parse(file);
+                    if(methods == null) {
+                        report.addFailedFile();
+                        continue;
+                    }
+                    report.addFile();
+                    for (MethodSnippet method : methods) {
+                        batch.add(method);
+                        if(batch.size() == METHODS_PER_BATCH) {
+                            submit(batch);
+                            batch = new ArrayList<>();
+                        }
+                    }
+                }
+                if(!batch.isEmpty()) {
+                    submit(batch);
+                }
+                while (!batchesInFlight.isEmpty()) {
+                    aggregateNext();
+                }
+                indicator.setFraction(1);
+            }
+            finally {
+                for (ScoredBatch batchInFlight : batchesInFlight.values()) {
+                    batchInFlight.rating.cancel(true);
+                }
+            }
+            return report;
+        }
+
+        /**
+         * Parse stage: list the java files and directories within the project content among some candidates
+         * (e.g. the children of a directory) within a non-blocking read action
+         * @param candidates provides the candidates, called within the read action
+         * @return the java files and directories
+         */
+        private Listing list(Callable<VirtualFile[]> candidates) {
+            return ReadAction.nonBlocking(() -> {
+                Listing listing = new Listing();
+                for (VirtualFile candidate : candidates.call()) {
+                    if(!candidate.isValid() || !fileIndex.isInContent(candidate)) {
+                        continue;
+                    }
+                    if(candidate.isDirectory()) {
+                        listing.directories.add(candidate);
+                    }
+                    else if("java".equalsIgnoreCase(candidate.getExtension())) {
+                        listing.javaFiles.add(candidate);
+                    }
+                }
+                return listing;
+            }).expireWith(project).wrapProgress(indicator).executeSynchronously();
+        }
+
+        /**
+         * Add the files and directories of a listing that were not visited before to the walk
+         */
+        private void enqueue(Listing listing, Deque<VirtualFile> directories, Deque<VirtualFile> javaFiles,
+                             Set<VirtualFile> visited) {
+            for (VirtualFile javaFile : listing.javaFiles) {
+                if(visited.add(javaFile)) {
+                    javaFiles.add(javaFile);
+                }
+            }
+            for (VirtualFile directory : listing.directories) {
+                if(visited.add(directory)) {
+                    directories.push(directory);
+                }
+            }
+        }
+
+        /**
+         * Parse stage: extract the methods of a file within a non-blocking read action
+         * @param file the java file
+         * @return the methods of the file or null if the file could not be parsed
+         */
+        private List<MethodSnippet> parse(VirtualFile file) {
+            try {
+                return ReadAction.nonBlocking(() -> {
+                    if(!file.isValid()) {
+                        return null;
+                    }
+                    List<MethodSnippet> methods = new ArrayList<>();
+                    for (JavaParseTree method : new JavaFileParser(project, file).getMethods()) {
+                        methods.add(new MethodSnippet(file.getPath(), method));
+                    }
+                    return methods;
+                }).expireWith(project).wrapProgress(indicator).executeSynchronously();
+            }
+            catch (ProcessCanceledException canceled) {
+                throw canceled;
+            }
+            catch (RuntimeException error) {
+                System.err.println("Failed to parse file: " + file.getPath());
+                System.err.println(error);
+                return null;
+            }
+        }
+
+        /**
+         * Score stage: rate a batch of methods on the scoring executor, waiting if too many batches are in flight
+         * @param methods the methods of the batch
+         */
+        private void submit(List<MethodSnippet> methods) {
+            while (batchesInFlight.size() >= MAX_BATCHES_IN_FLIGHT) {
+                aggregateNext();
+            }
+
+            int batchIndex = batchCount++;
+            List<String> code = new ArrayList<>();
+            List<PsiElement> elements = new ArrayList<>();
+            for (MethodSnippet method : methods) {
+                code.add(method.code);
+                elements.add(method.element);
+            }
+            Future<List<ReadabilityResult>> rating = readabilityService.getScoringExecutor().submit(() -> {
+                try {
+                    return readabilityService.rateCode(code, elements, new BitSet());
+                }
+                finally {
+                    finishedBatches.add(batchIndex);
+                }
+            }, () -> ViewportTracker.PRIORITY_HIDDEN);
+            batchesInFlight.put(batchIndex, new ScoredBatch(methods, rating));
+        }
+
+        /**
+         * Aggregate stage: wait for the next finished batch and add its results to the report
+         */
+        private void aggregateNext() {
+            Integer batchIndex = null;
+            try {
+                while (batchIndex == null) {
+                    indicator.checkCanceled();
+                    batchIndex = finishedBatches.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+            catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new ProcessCanceledException(error);
+            }
+
+            ScoredBatch batch = batchesInFlight.remove(batchIndex);
+            List<ReadabilityResult> results;
+            try {
+                results = batch.rating.get();
+            }
+            catch (ExecutionException error) {
+                if(error.getCause() instanceof ProcessCanceledException) {
+                    throw (ProcessCanceledException) error.getCause();
+                }
+                System.err.println("Failed to rate batch of " + batch.methods.size() + " methods");
+                System.err.println(error);
+                results = null;
+            }
+            catch (Exception error) {
+                System.err.println("Failed to rate batch of " + batch.methods.size() + " methods");
+                System.err.println(error);
+                results = null;
+            }
+
+            for (int i = 0; i < batch.methods.size(); i++) {
+                ReadabilityResult result = results == null ? null : results.get(i);
+                if(result == null) {
+                    report.addFailedMethod();
+                    continue;
+                }
+                MethodSnippet method = batch.methods.get(i);
+                report.addMethod(method.file, method.name, method.line, result.getReadability());
+            }
+            indicator.setText(String.format("Analysing readability: %d methods rated", report.getMethodCount()));
+        }
+    }
+
+    /**
+     * The java files and directories found in a directory
+     */
+    private static class Listing {
+        private final List<VirtualFile> javaFiles = new ArrayList<>();
+        private final List<VirtualFile> directories = new ArrayList<>();
+    }
+
+    /**
+     * The parts of a parsed method required to rate and report it
+     */
+    private static class MethodSnippet {
+        private final String file;
+        private final String name;
+        private final int line;
+        private final String code;
+        private final PsiElement element;
+
+        private MethodSnippet(String file, JavaParseTree method) {
+            this.file = file;
+            this.name = method.getName().replace("method ", "");
+            this.line = method.getStartLine();
+            this.code = method.getCode();
+            this.element = method.getScopeElement();
+        }
+    }
+
+    /**
+     * A batch of methods that is rated on the scoring executor
+     */
+    private static class ScoredBatch {
+        private final List<MethodSnippet> methods;
+        private final Future<List<ReadabilityResult>> rating;
+
+        private ScoredBatch(List<MethodSnippet> methods, Future<List<ReadabilityResult>> rating) {
+            this.methods = methods;
+            this.rating = rating;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package de.uni_passau.fim.readability_plugin.services;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -11,19 +15,37 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import de.uni_passau.fim.readability_plugin.java_parsing.JavaFileParser;
 import de.uni_passau.fim.readability_plugin.java_parsing.JavaParseTree;
+import de.uni_passau.fim.readability_plugin.readability.BoundedCache;
+import de.uni_passau.fim.readability_plugin.readability.CoalescingReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.NativeMetricsReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.PooledReadabilityApi;
 import de.uni_passau.fim.readability_plugin.readability.ReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.ReadabilityCaches;
 import de.uni_passau.fim.readability_plugin.readability.ReadabilityProcessException;
 import de.uni_passau.fim.readability_plugin.readability.ReadabilityResult;
-import de.uni_passau.fim.readability_plugin.readability.ScalabrinoReadabilityApi;
+import de.uni_passau.fim.readability_plugin.readability.ScoreStore;
+import de.uni_passau.fim.readability_plugin.readability.ScoringAdmission;
+import de.uni_passau.fim.readability_plugin.readability.ScoringExecutor;
+import de.uni_passau.fim.readability_plugin.readability.VirtualThreads;
 import de.uni_passau.fim.readability_plugin.painting.RatedJavaScope;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntSupplier;
 
 /**
  * This central service can be used to rate the readability of java code within the plugin.
@@ -34,9 +56,16 @@ import java.util.concurrent.*;
  *
  * In addition to rating and coloring a complete java file,
  * this service class also provides an api to rate a single code snippet.
+ *
+ * All rating work of the project runs on a single ScoringExecutor, so the number of concurrent model runs is
+ * bounded by the configured scoring parallelism. The executor is shut down when the project is closed.
  */
 @Service(Service.Level.PROJECT)
-public final class ReadabilityService {
+public final class ReadabilityService implements Disposable {
+
+    private static final int SCORING_QUEUE_CAPACITY = 256;
+    private static final long CANCEL_CHECK_MILLIS = 100;
+    private static final int METHODS_PER_CHUNK = 16;
 
     private final Project project;
     private ReadabilityApi api;
@@ -45,19 +74,36 @@ public final class ReadabilityService {
 
     private Application app;
 
-    private Map<String,Map<String,RatedJavaScope>> ratedMethodBuffer;
+    private BoundedCache<ReadabilityResult> resultCache;
 
     private SettingsService settingsService;
 
     private MetaDataService metaDataService;
 
+    private ScoreStore scoreStore;
+
+    private final ScoringExecutor scoringExecutor;
+
+    private final ViewportTracker viewportTracker;
+
+    private final Map<String,ProgressIndicator> runningAnalyses = new ConcurrentHashMap<>();
+
     ReadabilityService(Project project) {
-        api = ScalabrinoReadabilityApi.getInstance();
         this.project = project;
-        ratedMethodBuffer = new HashMap<>();
+        resultCache = ReadabilityCaches.getInstance().getResultCache();
         painterService = project.getService(LinePainterService.class);
         metaDataService = project.getService(MetaDataService.class);
         settingsService = project.getService(SettingsService.class);
+        api = new CoalescingReadabilityApi(new NativeMetricsReadabilityApi(PooledReadabilityApi.getInstance()));
+        scoreStore = ScoreStore.getInstance();
+        boolean virtualThreads = settingsService.useVirtualThreads() && VirtualThreads.isAvailable();
+        if(settingsService.useVirtualThreads() && !virtualThreads) {
+            System.err.println("Virtual threads are not supported by the runtime, rating on platform threads");
+        }
+        scoringExecutor = new ScoringExecutor("Readability scoring (" + project.getName() + ")",
+                getScoringParallelism(), SCORING_QUEUE_CAPACITY, virtualThreads,
+                ScoringAdmission.getInstance(), settingsService.scoringWeight());
+        viewportTracker = project.getService(ViewportTracker.class);
         app = ApplicationManager.getApplication();
     }
 
@@ -65,11 +111,20 @@ public final class ReadabilityService {
      * Updated the readability of a java files method.
      * The service does cache the old readability values of the method if it was rated before.
      * Therefore, a new rating will only be created if the content (or header) of the method did change.
+     * Ratings are also persisted in the ScoreStore, so methods rated in an earlier IDE session are not re-rated.
+     *
+     * The methods are split into chunks of consecutive methods. All methods of a chunk that must be re-rated are
+     * passed to the readability api as a single batch. The chunks are rated in the order of their viewport priority
+     * (see ViewportTracker), so the methods the developer is looking at are rated first.
      *
-     * The methods are rated in parallel in order to increase the performance.
+     * After every rated chunk the coloring service is triggered to render the updated coloured gutter icons
+     * of all methods rated so far.
      *
-     * After re-rating the readability values the coloring service is triggered to render the updated coloured gutter
-     * icons
+     * Only the latest analysis of a file is relevant: starting an analysis cancels the running analysis of the same
+     * file, and the results are not painted if the document changed while it was analysed.
+     * Cancelling an analysis cancels its waiting chunks and interrupts its running chunks, which destroys the
+     * model processes rating them.
+     * Use the AnalysisScheduler to debounce frequent changes of a file.
      *
      * @param file the java file containing the java method to re-rate and re-colour
      * @throws ReadabilityProcessException if there appeared an error during the re-rating process
@@ -82,7 +137,13 @@ public final class ReadabilityService {
         Task.Backgroundable task = new Task.Backgroundable(project, taskTitle) {
             @Override
             public void run(@NotNull ProgressIndicator indicator) {
+                String path = file.getPath();
+                ProgressIndicator supersededAnalysis = runningAnalyses.put(path, indicator);
+                if(supersededAnalysis != null) {
+                    supersededAnalysis.cancel();
+                }
                 try {
+                    long documentStamp = getDocumentStamp(file);
 
                     JavaFileParser fileParser = new JavaFileParser(project, file);
                     List<JavaParseTree> methods = fileParser.getMethods();
@@ -91,45 +152,52 @@ public final class ReadabilityService {
                         return;
                     }
 
-                    List<RatedJavaScope> ratedMethods = new ArrayList<>();
-
-                    int numThreads = Math.min(methods.size(), Runtime.getRuntime().availableProcessors());
-                    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-                    List<Future<RatedJavaScope>> futures = new ArrayList<>();
-
                     indicator.setIndeterminate(false);
                     indicator.setFraction(0);
 
-                    Map<String,RatedJavaScope> methodBuffer = ratedMethodBuffer.getOrDefault(file.getPath(),new HashMap<>());
-
-                    for (int i = 0; i < methods.size(); i++) {
-                        Callable<RatedJavaScope> callable = new ReadabilityProcessor(methods.get(i), api,methodBuffer);
-                        futures.add(executor.submit(callable));
-                        indicator.setFraction((double) i / methods.size());
+                    indicator.checkCanceled();
+                    ScoringExecutor scoringExecutor = getScoringExecutor();
+                    List<Future<List<RatedJavaScope>>> ratings = new ArrayList<>();
+                    BlockingQueue<Integer> finishedChunks = new LinkedBlockingQueue<>();
+                    for (int start = 0; start < methods.size(); start += METHODS_PER_CHUNK) {
+                        List<JavaParseTree> chunk = methods.subList(start, Math.min(start + METHODS_PER_CHUNK, methods.size()));
+                        int chunkIndex = ratings.size();
+                        ReadabilityProcessor processor = new ReadabilityProcessor(chunk);
+                        ratings.add(scoringExecutor.submit(() -> {
+                            try {
+                                return processor.call();
+                            }
+                            finally {
+                                finishedChunks.add(chunkIndex);
+                            }
+                        }, chunkPriority(file, chunk)));
                     }
 
-
-                    Map<String,RatedJavaScope> updatedBuffer = new HashMap<>();
-                    for (Future<RatedJavaScope> future : futures) {
-                        try {
-                            RatedJavaScope ratedMethod = future.get();
-                            ratedMethods.add(ratedMethod);
-                            updatedBuffer.put(ratedMethod.getCode(), ratedMethod);
-                        } catch (Exception e) {
-                            e.printStackTrace();
+                    List<RatedJavaScope> ratedMethods = new ArrayList<>();
+                    try {
+                        for (int finished = 0; finished < ratings.size(); finished++) {
+                            Integer chunkIndex = null;
+                            while (chunkIndex == null) {
+                                chunkIndex = finishedChunks.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                                indicator.checkCanceled();
+                            }
+                            ratedMethods.addAll(awaitRating(ratings.get(chunkIndex), indicator));
+                            indicator.setFraction((double) (finished + 1) / ratings.size());
+                            paint(file, new ArrayList<>(ratedMethods), documentStamp);
                         }
                     }
-
-                    executor.shutdown();
-                    ratedMethodBuffer.put(file.getPath(),updatedBuffer);
-                    if(!ratedMethods.isEmpty() && settingsService.showUi()) {
-                        SwingUtilities.invokeLater(() -> {
-                            painterService.colorLines(file, ratedMethods);
-                        });
+                    finally {
+                        for (Future<List<RatedJavaScope>> rating : ratings) {
+                            rating.cancel(true);
+                        }
                     }
 
+                } catch (ProcessCanceledException canceled) {
+                    throw canceled;
                 } catch (Exception e) {
                     e.printStackTrace();
+                } finally {
+                    runningAnalyses.remove(path, indicator);
                 }
             }
         };
@@ -137,6 +205,77 @@ public final class ReadabilityService {
         ProgressManager.getInstance().run(task);
     }
 
+    /**
+     * Provide the current rating priority of a chunk of methods, based on the lines the developer is looking at
+     * @param file the file containing the methods
+     * @param chunk the consecutive methods of the chunk
+     * @return the priority supplier of the chunk
+     */
+    private IntSupplier chunkPriority(VirtualFile file, List<JavaParseTree> chunk) {
+        int startLine = Integer.MAX_VALUE;
+        int endLine = Integer.MIN_VALUE;
+        for (JavaParseTree method : chunk) {
+            startLine = Math.min(startLine, method.getStartLine(true));
+            endLine = Math.max(endLine, method.getEndLine(true));
+        }
+        int chunkStart = startLine;
+        int chunkEnd = endLine;
+        return () -> viewportTracker.getPriority(file, chunkStart, chunkEnd);
+    }
+
+    /**
+     * Render the gutter icons of the rated methods, unless the document changed since it was parsed
+     * (the lines of the rated methods would be outdated then)
+     * @param file the rated file
+     * @param ratedMethods the ratings of the methods to paint
+     * @param documentStamp the modification stamp of the document when it was parsed
+     */
+    private void paint(VirtualFile file, List<RatedJavaScope> ratedMethods, long documentStamp) {
+        if(ratedMethods.isEmpty() || !settingsService.showUi()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            if(getDocumentStamp(file) == documentStamp) {
+                painterService.colorLines(file, ratedMethods);
+            }
+        });
+    }
+
+    /**
+     * Wait for a rating that runs on the scoring executor.
+     * If the analysis is cancelled while waiting, the rating is cancelled as well.
+     * @param rating the future of the rating
+     * @param indicator the progress indicator of the analysis
+     * @return the rating result
+     * @throws Exception if the rating failed
+     */
+    private static <T> T awaitRating(Future<T> rating, ProgressIndicator indicator) throws Exception {
+        while (true) {
+            try {
+                return rating.get(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException timeout) {
+                if(indicator.isCanceled()) {
+                    rating.cancel(true);
+                    indicator.checkCanceled();
+                }
+            }
+            catch (ExecutionException error) {
+                throw error.getCause() instanceof Exception ? (Exception) error.getCause() : error;
+            }
+        }
+    }
+
+    /**
+     * Get the modification stamp of the document of a file, or of the file itself if it has no loaded document
+     * @param file the file
+     * @return the modification stamp
+     */
+    private static long getDocumentStamp(VirtualFile file) {
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        return document != null ? document.getModificationStamp() : file.getModificationStamp();
+    }
+
     /**
      * Rates a single code snippet and provides it readability.
      * Please note that when using this method no code metrics are extracted.
@@ -151,47 +290,189 @@ public final class ReadabilityService {
     }
 
     /**
-     * Utility class to create a Callable for providing the readability of a snippet.
-     * This class is required in order to rate the different snippets in parallel.
+     * Cancel the running analysis of a file (e.g. because the file was closed), so its model processes
+     * do not keep the CPU busy
+     * @param file the java file
+     */
+    public void cancelAnalysis(VirtualFile file) {
+        ProgressIndicator analysis = runningAnalyses.get(file.getPath());
+        if(analysis != null) {
+            analysis.cancel();
+        }
+    }
+
+    /**
+     * Get the executor all rating work of the project should run on.
+     * Its parallelism is adjusted to the parallelism of the readability api first.
+     * @return the scoring executor of the project
+     */
+    public ScoringExecutor getScoringExecutor() {
+        scoringExecutor.setParallelism(getScoringParallelism());
+        return scoringExecutor;
+    }
+
+    /**
+     * The configured scoring parallelism, but not more than the readability api can rate at the same time
+     * @return the number of ratings the project should run at the same time
+     */
+    private int getScoringParallelism() {
+        return Math.min(settingsService.scoringParallelism(), api.getParallelism());
+    }
+
+    /**
+     * Stops all rating work of the project if the project is closed
+     */
+    @Override
+    public void dispose() {
+        for (ProgressIndicator analysis : runningAnalyses.values()) {
+            analysis.cancel();
+        }
+        scoringExecutor.shutdown();
+    }
+
+    /**
+     * Provides the readability of code snippets (e.g. the methods of a java file) including their code metrics.
      *
-     * If the Processor is called for a given method it will provide its readability.
+     * First checks for every snippet if its content was rated before.
+     * Cached results and results persisted in the ScoreStore are simply returned, all other snippets are rated with
+     * a single batch call of the readability api and the new results are added to the cache and the store.
+     * Snippets with the same content are only rated once.
+     *
+     * @param codeSnippets the code snippets to rate
+     * @param linkedElements the parse tree elements matching the code snippets
+     * @param newlyRated collects the indices of the snippets that were rated by the readability api
+     * @return the results in the order of the given snippets, a result is null if the snippet could not be rated
      */
-    private class ReadabilityProcessor implements Callable<RatedJavaScope> {
-        private JavaParseTree javaMethod;
-        private ReadabilityApi api;
-        private Map<String,RatedJavaScope> methodBuffer;
-
-        public ReadabilityProcessor(JavaParseTree method, ReadabilityApi api, Map<String,RatedJavaScope> methodBuffer ) {
-            this.javaMethod = method;
-            this.api = api;
-            this.methodBuffer = methodBuffer;
+    List<ReadabilityResult> rateCode(List<String> codeSnippets, List<PsiElement> linkedElements, BitSet newlyRated) {
+        ReadabilityResult[] results = new ReadabilityResult[codeSnippets.size()];
+
+        //snippets with the same content are only rated once
+        Map<String,List<Integer>> unratedSnippets = new LinkedHashMap<>();
+        List<PsiElement> unratedElements = new ArrayList<>();
+
+        for (int i = 0; i < codeSnippets.size(); i++) {
+            String content = codeSnippets.get(i);
+            //the cache only holds the readability result, so cached results never pin the psi elements
+            //of methods that were rated before
+            ReadabilityResult cachedResult = resultCache.get(content);
+            if(cachedResult != null) {
+                results[i] = cachedResult;
+                continue;
+            }
+            if(!unratedSnippets.containsKey(content)) {
+                ReadabilityResult storedResult = scoreStore.get(content);
+                if(storedResult != null) {
+                    resultCache.put(content, storedResult);
+                    results[i] = storedResult;
+                    continue;
+                }
+                unratedSnippets.put(content, new ArrayList<>());
+                unratedElements.add(linkedElements.get(i));
+            }
+            unratedSnippets.get(content).add(i);
+        }
+
+        if(!unratedSnippets.isEmpty()) {
+            List<String> unratedCode = new ArrayList<>(unratedSnippets.keySet());
+            List<ReadabilityResult> newResults = rateBatch(unratedCode, unratedElements);
+
+            for (int i = 0; i < unratedCode.size(); i++) {
+                if(newResults.get(i) == null) {
+                    continue;
+                }
+                resultCache.put(unratedCode.get(i), newResults.get(i));
+                scoreStore.put(unratedCode.get(i), newResults.get(i));
+                for(int snippetIndex : unratedSnippets.get(unratedCode.get(i))) {
+                    results[snippetIndex] = newResults.get(i);
+                    newlyRated.set(snippetIndex);
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Rate the given snippets with a single batch call.
+     * If the batch fails (for example because the model can not handle one of the snippets)
+     * the snippets are rated one by one, so a single broken snippet does not prevent rating all other snippets.
+     * A batch that failed because the rating was cancelled is not rated again.
+     * @param codeSnippets the code of the snippets to rate
+     * @param linkedElements the psi elements of the snippets to rate
+     * @return the results in the order of the given snippets, a result is null if the snippet could not be rated
+     * @throws ProcessCanceledException if the rating thread got interrupted
+     */
+    private List<ReadabilityResult> rateBatch(List<String> codeSnippets, List<PsiElement> linkedElements) {
+        try {
+            return api.processCodeSnippets(codeSnippets, true, linkedElements);
+        }
+        catch (ReadabilityProcessException batchError) {
+            if(batchError.isCancellation()) {
+                throw new ProcessCanceledException(batchError);
+            }
+            batchError.printStackTrace();
+        }
+
+        List<ReadabilityResult> results = new ArrayList<>();
+        for (int i = 0; i < codeSnippets.size(); i++) {
+            try {
+                results.add(api.processCodeSnippet(codeSnippets.get(i), true, linkedElements.get(i)));
+            }
+            catch (ReadabilityProcessException error) {
+                if(error.isCancellation()) {
+                    throw new ProcessCanceledException(error);
+                }
+                error.printStackTrace();
+                results.add(null);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Utility class to create a Callable for providing the readability of the methods of a java file.
+     *
+     * If the Processor is called for the given methods it will provide their readability (see rateCode).
+     */
+    private class ReadabilityProcessor implements Callable<List<RatedJavaScope>> {
+        private List<JavaParseTree> javaMethods;
+
+        public ReadabilityProcessor(List<JavaParseTree> methods) {
+            this.javaMethods = methods;
         }
 
         /**
-         * Provides the readability of the java method referenced in the javaMethod class attribute.
+         * Provides the readability of the java methods referenced in the javaMethods class attribute.
          *
-         * First checks if the methods content did change.
+         * First checks for every method if its content did change.
          * If it did the method is re-rated and the result is added to the cache (and returned).
          * If the content did not change the cached readability value in simply returned.
-         * @return the readability result for the given method
+         * @return the readability results for the given methods
          * @throws Exception if any error appeared during the rating process.
          */
         @Override
-        public RatedJavaScope call() throws Exception {
-
-            String methodContent = javaMethod.getCode();
-            if(methodBuffer.containsKey(methodContent)) {
-                RatedJavaScope bufferedRating = methodBuffer.get(methodContent);
-                //if 2 methods are completely the same the buffer matches 2 methods
-                //therefore not returning the buffer content but only the readability result
-                //of the buffer + the javaMethod that was actually rated
-                return new RatedJavaScope(javaMethod,bufferedRating.getReadabilityResult());
+        public List<RatedJavaScope> call() throws Exception {
+            List<String> methodContents = new ArrayList<>();
+            List<PsiElement> methodElements = new ArrayList<>();
+            for (JavaParseTree javaMethod : javaMethods) {
+                methodContents.add(javaMethod.getCode());
+                methodElements.add(javaMethod.getScopeElement());
             }
 
-            ReadabilityResult result = api.processCodeSnippet(methodContent, true, javaMethod.getScopeElement());
-            RatedJavaScope newRating = new RatedJavaScope(javaMethod, result);
-            metaDataService.registerReadabilityReRender(newRating);
-            return newRating;
+            BitSet newlyRated = new BitSet();
+            List<ReadabilityResult> results = rateCode(methodContents, methodElements, newlyRated);
+
+            List<RatedJavaScope> ratedMethods = new ArrayList<>();
+            for (int i = 0; i < javaMethods.size(); i++) {
+                if(results.get(i) == null) {
+                    continue;
+                }
+                RatedJavaScope ratedMethod = new RatedJavaScope(javaMethods.get(i), results.get(i));
+                if(newlyRated.get(i)) {
+                    metaDataService.registerReadabilityReRender(ratedMethod);
+                }
+                ratedMethods.add(ratedMethod);
+            }
+            return ratedMethods;
         }
     }
 }
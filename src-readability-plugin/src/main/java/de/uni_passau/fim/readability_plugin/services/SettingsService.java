@@ -4,6 +4,8 @@ import com.intellij.openapi.components.Service;
 import com.intellij.openapi.project.Project;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
 /**
  * The plugin should behave differently depending on the open project.
@@ -19,6 +21,9 @@ public final class SettingsService {
 
     private boolean gitSyncEnabled;
     private boolean uiEnabled;
+    private int scoringParallelism;
+    private boolean virtualThreadsEnabled;
+    private int scoringWeight;
 
     public SettingsService(Project project) {
         this.project = project;
@@ -31,6 +36,37 @@ public final class SettingsService {
         File uiEnabledFile = new File(projectFile, "show_readability_ui");
         uiEnabled = uiEnabledFile.exists();
 
+        File virtualThreadsFile = new File(projectFile, "use_virtual_threads");
+        virtualThreadsEnabled = virtualThreadsFile.exists();
+
+        //virtual threads do not occupy a platform thread while waiting for the model,
+        //so the parallelism is only bounded by the processors running the model
+        int processors = Runtime.getRuntime().availableProcessors();
+        int defaultParallelism = virtualThreadsEnabled ? processors : Math.max(1, processors / 2);
+        File parallelismFile = new File(projectFile, "scoring_parallelism");
+        scoringParallelism = parallelismFile.exists() ? readPositiveNumber(parallelismFile, defaultParallelism) : defaultParallelism;
+
+        File weightFile = new File(projectFile, "scoring_weight");
+        scoringWeight = weightFile.exists() ? readPositiveNumber(weightFile, 1) : 1;
+
+    }
+
+    /**
+     * Read a configuration value from a settings file.
+     * The file may contain a single positive number. If the file is empty or does not contain a valid number,
+     * the given default value is used.
+     * @param settingsFile the file to read the number from
+     * @param defaultValue the value to use if no valid number is defined
+     * @return the configured number
+     */
+    private int readPositiveNumber(File settingsFile, int defaultValue) {
+        try {
+            int value = Integer.parseInt(Files.readString(settingsFile.toPath()).trim());
+            return value > 0 ? value : defaultValue;
+        }
+        catch (IOException | NumberFormatException error) {
+            return defaultValue;
+        }
     }
 
     /**
@@ -53,5 +89,34 @@ public final class SettingsService {
         return uiEnabled;
     }
 
+    /**
+     * Returns the maximum number of code snippets the project rates at the same time.
+     * The number can be defined in the "scoring_parallelism" file, otherwise half of the available processors
+     * (but at least one) are used, or all available processors if virtual threads are used.
+     * @return the scoring parallelism
+     */
+    public int scoringParallelism() {
+        return scoringParallelism;
+    }
+
+    /**
+     * Returns true if the "use_virtual_threads" file existed in the project at the moment
+     * when the project was opened by the developer.
+     * Only if this file exists the ratings should run on virtual threads (if supported by the runtime of the IDE).
+     * @return whether the ratings should run on virtual threads or not
+     */
+    public boolean useVirtualThreads() {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * Returns the share of the global scoring capacity this project gets while other projects rate at the same time
+     * (see ScoringAdmission). The weight can be defined in the "scoring_weight" file, otherwise it is 1.
+     * @return the scoring weight of the project
+     */
+    public int scoringWeight() {
+        return scoringWeight;
+    }
+
 
 }
@@ -0,0 +1,219 @@
+package de.uni_passau.fim.readability_plugin.services;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.CaretEvent;
+import com.intellij.openapi.editor.event.CaretListener;
+import com.intellij.openapi.editor.event.EditorEventMulticaster;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import com.intellij.openapi.editor.event.VisibleAreaEvent;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which lines of which files the developer is currently looking at, in order to rate
+ * the visible methods before the methods that are off-screen.
+ *
+ * The visible lines and the caret line of every editor of the project are captured on the event dispatch thread
+ * whenever an editor is scrolled, the caret moves or another editor is selected. The priorities can then be
+ * computed from any thread. Every change of the viewport re-prioritizes the waiting rating tasks of the project.
+ *
+ * Lower priorities are rated first:
+ * - PRIORITY_CARET: the code contains the caret of the selected editor
+ * - PRIORITY_VISIBLE_SELECTED: the code is visible in the selected editor
+ * - PRIORITY_VISIBLE: the code is visible in another editor
+ * - PRIORITY_OPEN + distance: the file is open, but the code is not visible; closer code is rated first
+ * - PRIORITY_HIDDEN: the file is not open in any editor
+ */
+@Service(Service.Level.PROJECT)
+public final class ViewportTracker implements Disposable {
+
+    public static final int PRIORITY_CARET = 1;
+    public static final int PRIORITY_VISIBLE_SELECTED = 2;
+    public static final int PRIORITY_VISIBLE = 3;
+    public static final int PRIORITY_OPEN = 1000;
+    public static final int PRIORITY_HIDDEN = Integer.MAX_VALUE;
+
+    private static final int MAX_DISTANCE = 1_000_000;
+
+    private final Project project;
+    private final Map<Editor,Viewport> viewports = new ConcurrentHashMap<>();
+    private volatile Editor selectedEditor;
+
+    ViewportTracker(Project project) {
+        this.project = project;
+
+        EditorFactory editorFactory = EditorFactory.getInstance();
+        EditorEventMulticaster multicaster = editorFactory.getEventMulticaster();
+        multicaster.addVisibleAreaListener(new VisibleAreaListener() {
+            @Override
+            public void visibleAreaChanged(@NotNull VisibleAreaEvent event) {
+                update(event.getEditor());
+            }
+        }, this);
+        multicaster.addCaretListener(new CaretListener() {
+            @Override
+            public void caretPositionChanged(@NotNull CaretEvent event) {
+                update(event.getEditor());
+            }
+        }, this);
+        editorFactory.addEditorFactoryListener(new EditorFactoryListener() {
+            @Override
+            public void editorCreated(@NotNull EditorFactoryEvent event) {
+                update(event.getEditor());
+            }
+
+            @Override
+            public void editorReleased(@NotNull EditorFactoryEvent event) {
+                viewports.remove(event.getEditor());
+            }
+        }, this);
+        project.getMessageBus().connect(this).subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER,
+                new FileEditorManagerListener() {
+                    @Override
+                    public void selectionChanged(@NotNull FileEditorManagerEvent event) {
+                        updateSelectedEditor();
+                    }
+                });
+
+        ApplicationManager.getApplication().invokeLater(() -> {
+            for (Editor editor : editorFactory.getAllEditors()) {
+                update(editor);
+            }
+            updateSelectedEditor();
+        }, project.getDisposed());
+    }
+
+    /**
+     * Get the rating priority of a range of lines of a file
+     * @param file the java file
+     * @param startLine the zero indexed first line of the code
+     * @param endLine the zero indexed last line of the code
+     * @return the priority, lower values should be rated first
+     */
+    public int getPriority(VirtualFile file, int startLine, int endLine) {
+        String path = file.getPath();
+        int priority = PRIORITY_HIDDEN;
+        for (Map.Entry<Editor,Viewport> entry : viewports.entrySet()) {
+            Viewport viewport = entry.getValue();
+            if(!viewport.path.equals(path)) {
+                continue;
+            }
+            boolean selected = entry.getKey() == selectedEditor;
+            priority = Math.min(priority, viewport.getPriority(startLine, endLine, selected));
+        }
+        return priority;
+    }
+
+    /**
+     * Capture the viewport of an editor and re-prioritize the waiting rating tasks if it changed.
+     * Must be called on the event dispatch thread.
+     */
+    private void update(Editor editor) {
+        if(editor.getProject() != project || editor.isDisposed()) {
+            return;
+        }
+        VirtualFile file = FileDocumentManager.getInstance().getFile(editor.getDocument());
+        if(file == null) {
+            return;
+        }
+
+        Rectangle visibleArea = editor.getScrollingModel().getVisibleArea();
+        int firstLine = -1;
+        int lastLine = -1;
+        if(visibleArea.height > 0) {
+            firstLine = editor.xyToLogicalPosition(new Point(0, visibleArea.y)).line;
+            lastLine = editor.xyToLogicalPosition(new Point(0, visibleArea.y + visibleArea.height)).line;
+        }
+        int caretLine = editor.getCaretModel().getLogicalPosition().line;
+
+        Viewport viewport = new Viewport(file.getPath(), firstLine, lastLine, caretLine);
+        Viewport previous = viewports.put(editor, viewport);
+        if(!viewport.equals(previous)) {
+            reprioritize();
+        }
+    }
+
+    private void updateSelectedEditor() {
+        Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
+        if(editor != selectedEditor) {
+            selectedEditor = editor;
+            reprioritize();
+        }
+    }
+
+    private void reprioritize() {
+        if(!project.isDisposed()) {
+            project.getService(ReadabilityService.class).getScoringExecutor().reprioritize();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        viewports.clear();
+        selectedEditor = null;
+    }
+
+    /**
+     * The visible lines and the caret line of an editor
+     */
+    private static class Viewport {
+        private final String path;
+        private final int firstLine;
+        private final int lastLine;
+        private final int caretLine;
+
+        private Viewport(String path, int firstLine, int lastLine, int caretLine) {
+            this.path = path;
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.caretLine = caretLine;
+        }
+
+        private int getPriority(int startLine, int endLine, boolean selected) {
+            if(firstLine < 0) {
+                return PRIORITY_OPEN + MAX_DISTANCE;
+            }
+            if(endLine < firstLine) {
+                return PRIORITY_OPEN + Math.min(firstLine - endLine, MAX_DISTANCE);
+            }
+            if(startLine > lastLine) {
+                return PRIORITY_OPEN + Math.min(startLine - lastLine, MAX_DISTANCE);
+            }
+            if(!selected) {
+                return PRIORITY_VISIBLE;
+            }
+            boolean containsCaret = caretLine >= startLine && caretLine <= endLine;
+            return containsCaret ? PRIORITY_CARET : PRIORITY_VISIBLE_SELECTED;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Viewport)) {
+                return false;
+            }
+            Viewport otherViewport = (Viewport) other;
+            return path.equals(otherViewport.path) && firstLine == otherViewport.firstLine
+                    && lastLine == otherViewport.lastLine && caretLine == otherViewport.caretLine;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + firstLine;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package de.uni_passau.fim.readability_plugin.java_parsing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the binary search of the LineIndex with the linear scan over the split lines the parse trees used before.
+ */
+public class LineIndexTest {
+
+    @Test
+    public void matchesLinearScanForEdgeCases() {
+        String[] codes = {"", "\n", "\n\n", "a", "a\n", "a\n\n\n", "\na", "\n\na\n", "a\nb", "ab\n\ncd\n", "  \n \n"};
+        for (String code : codes) {
+            assertSameLines(code);
+        }
+    }
+
+    @Test
+    public void matchesLinearScanForRandomCode() {
+        Random random = new Random(42);
+        char[] alphabet = {'a', ' ', '{', '}', '\n', '\n'};
+        for (int run = 0; run < 500; run++) {
+            StringBuilder code = new StringBuilder();
+            int length = random.nextInt(60);
+            for (int i = 0; i < length; i++) {
+                code.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            assertSameLines(code.toString());
+        }
+    }
+
+    private static void assertSameLines(String code) {
+        LineIndex index = new LineIndex(code);
+        assertEquals("line count of " + escape(code), code.split("\n").length, index.getLineCount());
+        for (int offset = -2; offset <= code.length() + 2; offset++) {
+            assertEquals("offset " + offset + " of " + escape(code), linearScan(code, offset), index.getLine(offset));
+        }
+    }
+
+    /**
+     * The line lookup of the parse trees before the LineIndex existed
+     */
+    private static int linearScan(String code, int offset) {
+        List<Integer> lineRanges = new ArrayList<>();
+        for (String line : code.split("\n")) {
+            lineRanges.add(line.length() + 1);
+        }
+        int prevRange = 0;
+        for (int i = 0; i < lineRanges.size(); i++) {
+            int range = prevRange + lineRanges.get(i);
+            if (prevRange <= offset && range >= offset) {
+                return i;
+            }
+            prevRange = range;
+        }
+        return lineRanges.size();
+    }
+
+    private static String escape(String code) {
+        return "\"" + code.replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,99 @@
+package de.uni_passau.fim.readability_plugin.java_parsing;
+
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the innermost scope lookup of the ParsedJavaFile (see ParsedJavaFile.ScopeIntervals) with a linear scan
+ * over all scopes of the file, for every range of a sample file.
+ */
+public class ScopeIntervalsTest extends BasePlatformTestCase {
+
+    private static final String SOURCE = String.join("\n",
+            "package sample;",
+            "",
+            "import java.util.List;",
+            "",
+            "/**",
+            " * A class with nested scopes",
+            " */",
+            "public class Sample {",
+            "    private int count;",
+            "",
+            "    public int sum(List<Integer> values) {",
+            "        int sum = 0;",
+            "        for (int value : values) {",
+            "            if (value > 0) { sum += value; } else { sum -= value; }",
+            "        }",
+            "        for (int i = 0; i < count; i++) {",
+            "            while (i < sum) {",
+            "                i++;",
+            "            }",
+            "        }",
+            "        return sum;",
+            "    }",
+            "",
+            "    void run() {",
+            "        Runnable task = new Runnable() {",
+            "            @Override",
+            "            public void run() {",
+            "                try { count++; } catch (RuntimeException error) { count--; }",
+            "            }",
+            "        };",
+            "        do { task.run(); } while (count < 3);",
+            "        switch (count) {",
+            "            case 1: count = 2; break;",
+            "            default: count = 0;",
+            "        }",
+            "    }",
+            "",
+            "    static class Inner {",
+            "        int get() { return 1; }",
+            "    }",
+            "}",
+            "",
+            "");
+
+    public void testInnermostScopeMatchesLinearScan() {
+        PsiJavaFile javaFile = (PsiJavaFile) myFixture.configureByText("Sample.java", SOURCE);
+        JavaParseTree root = JavaParseTree.parse(javaFile, true);
+
+        //in the order of the code, so the last scope containing a range is the innermost one
+        List<JavaParseTree> scopes = new ArrayList<>();
+        scopes.add(root);
+        scopes.addAll(root.search(JavaParseTree.scopes));
+
+        int length = SOURCE.length();
+        for (int start = -1; start <= length + 1; start++) {
+            for (int end = start; end <= length + 1; end++) {
+                JavaParseTree expected = null;
+                for (JavaParseTree scope : scopes) {
+                    if (scope.getStartOffset() <= start && scope.getEndOffset() >= end) {
+                        expected = scope;
+                    }
+                }
+                assertSame("range " + start + "-" + end, expected, root.getInnermostScope(start, end));
+            }
+        }
+    }
+
+    public void testScopesAreFound() {
+        PsiJavaFile javaFile = (PsiJavaFile) myFixture.configureByText("Sample.java", SOURCE);
+        JavaParseTree root = JavaParseTree.parse(javaFile, true);
+
+        int body = SOURCE.indexOf("sum += value");
+        JavaParseTree ifStatement = root.getInnermostScope(body, body);
+        assertNotNull(ifStatement);
+        assertEquals(SOURCE.indexOf("if (value > 0)"), ifStatement.getStartOffset());
+
+        int catchBody = SOURCE.indexOf("count--");
+        JavaParseTree catchSection = root.getInnermostScope(catchBody, catchBody);
+        assertNotNull(catchSection);
+        assertEquals(SOURCE.indexOf("catch (RuntimeException"), catchSection.getStartOffset());
+
+        assertSame(root, root.getInnermostScope(0, SOURCE.length()));
+    }
+}
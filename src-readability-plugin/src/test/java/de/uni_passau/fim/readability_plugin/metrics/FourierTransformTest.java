@@ -0,0 +1,93 @@
+package de.uni_passau.fim.readability_plugin.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the radix-2 and Bluestein paths of the FourierTransform with a naive O(n^2) DFT.
+ */
+public class FourierTransformTest {
+
+    private static final double TOLERANCE = 1e-6;
+
+    @Test
+    public void magnitudesMatchNaiveDft() {
+        Random random = new Random(42);
+        FourierTransform transform = new FourierTransform();
+        for (int n = 1; n <= 200; n++) {
+            int[] signal = randomSignal(random, n);
+            assertMagnitudes(transform, signal, n);
+        }
+    }
+
+    @Test
+    public void reusedBuffersDoNotLeakBetweenLengths() {
+        Random random = new Random(7);
+        FourierTransform transform = new FourierTransform();
+        //alternate between Bluestein and radix-2 lengths, so chirps and work buffers are replaced and reused
+        int[] lengths = {37, 64, 37, 300, 5, 128, 299, 1, 3};
+        for (int n : lengths) {
+            assertMagnitudes(transform, randomSignal(random, n), n);
+        }
+    }
+
+    @Test
+    public void bandwidthCountsNonVanishingFrequencies() {
+        FourierTransform transform = new FourierTransform();
+        assertEquals(0, transform.bandwidth(new int[7], 7));
+        assertEquals(1, transform.bandwidth(new int[]{3, 3, 3, 3, 3, 3, 3}, 7));
+        //a signal with period 2 has the constant and the n/2 frequency only
+        assertEquals(2, transform.bandwidth(new int[]{1, 0, 1, 0, 1, 0}, 6));
+        assertEquals(naiveBandwidth(new int[]{4, 0, 1, 7, 2, 2, 0, 9, 1, 3, 5}),
+                transform.bandwidth(new int[]{4, 0, 1, 7, 2, 2, 0, 9, 1, 3, 5}, 11));
+    }
+
+    private static void assertMagnitudes(FourierTransform transform, int[] signal, int n) {
+        double[] expected = naiveMagnitudes(signal, n);
+        double[] actual = new double[n];
+        transform.magnitudes(signal, n, actual);
+        for (int k = 0; k < n; k++) {
+            assertEquals("n = " + n + ", k = " + k, expected[k], actual[k], TOLERANCE * Math.max(1, expected[k]));
+        }
+    }
+
+    private static int[] randomSignal(Random random, int n) {
+        int[] signal = new int[n];
+        for (int i = 0; i < n; i++) {
+            signal[i] = random.nextInt(120);
+        }
+        return signal;
+    }
+
+    private static double[] naiveMagnitudes(int[] signal, int n) {
+        double[] magnitudes = new double[n];
+        for (int k = 0; k < n; k++) {
+            double re = 0;
+            double im = 0;
+            for (int j = 0; j < n; j++) {
+                double angle = -2 * Math.PI * ((long) j * k % n) / n;
+                re += signal[j] * Math.cos(angle);
+                im += signal[j] * Math.sin(angle);
+            }
+            magnitudes[k] = Math.hypot(re, im);
+        }
+        return magnitudes;
+    }
+
+    private static int naiveBandwidth(int[] signal) {
+        long sum = 0;
+        for (int value : signal) {
+            sum += Math.abs(value);
+        }
+        int frequencies = 0;
+        for (double magnitude : naiveMagnitudes(signal, signal.length)) {
+            if (magnitude > 1e-9 * sum) {
+                frequencies++;
+            }
+        }
+        return frequencies;
+    }
+}